@@ -0,0 +1,137 @@
+/*
+ * Copyright 2012 Tamas Blummer tamas@bitsofproof.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitsofproof.supernode.api;
+
+/**
+ * An address as its version byte and the 20 byte key or script hash, immutable and held in primitive fields. Conversion
+ * from and to the Base58 form is cached by AddressConverter.
+ */
+public class Address
+{
+	public static final int HASH_LENGTH = 20;
+
+	private final byte version;
+	private final long w0;
+	private final long w1;
+	private final int w2;
+
+	/**
+	 * @param version
+	 *            address flag of the chain, for a key or a script hash
+	 * @param hash
+	 *            hash160 of the key or script
+	 */
+	public Address (int version, byte[] hash)
+	{
+		this (version, hash, 0);
+	}
+
+	public Address (int version, byte[] b, int offset)
+	{
+		if ( version < 0 || version > 255 )
+		{
+			throw new IllegalArgumentException ("Address version must fit into a byte");
+		}
+		if ( offset < 0 || b.length - offset < HASH_LENGTH )
+		{
+			throw new IllegalArgumentException ("Address needs a " + HASH_LENGTH + " bytes hash");
+		}
+		this.version = (byte) version;
+		w0 = readLong (b, offset);
+		w1 = readLong (b, offset + 8);
+		w2 = (int) (readLong (b, offset + 12) & 0xffffffffL);
+	}
+
+	private static long readLong (byte[] b, int offset)
+	{
+		long w = 0;
+		for ( int i = 0; i < 8; ++i )
+		{
+			w = (w << 8) | (b[offset + i] & 0xffL);
+		}
+		return w;
+	}
+
+	private static void writeLong (long w, byte[] b, int offset, int length)
+	{
+		for ( int i = length - 1; i >= 0; --i )
+		{
+			b[offset + i] = (byte) w;
+			w >>>= 8;
+		}
+	}
+
+	public static Address fromSatoshiStyle (String s) throws ValidationException
+	{
+		return AddressConverter.parseAddress (s);
+	}
+
+	public String toSatoshiStyle ()
+	{
+		return AddressConverter.toSatoshiStyle (this);
+	}
+
+	public int getVersion ()
+	{
+		return version & 0xff;
+	}
+
+	public boolean isMultisig (ChainParameter chain)
+	{
+		return getVersion () == chain.getMultisigAddressFlag ();
+	}
+
+	public byte[] getHash ()
+	{
+		byte[] hash = new byte[HASH_LENGTH];
+		copyHashTo (hash, 0);
+		return hash;
+	}
+
+	public void copyHashTo (byte[] target, int offset)
+	{
+		writeLong (w0, target, offset, 8);
+		writeLong (w1, target, offset + 8, 8);
+		writeLong (w2, target, offset + 16, 4);
+	}
+
+	@Override
+	public int hashCode ()
+	{
+		return (int) w0 ^ version;
+	}
+
+	@Override
+	public boolean equals (Object obj)
+	{
+		if ( this == obj )
+		{
+			return true;
+		}
+		if ( !(obj instanceof Address) )
+		{
+			return false;
+		}
+		Address o = (Address) obj;
+		return version == o.version && w0 == o.w0 && w1 == o.w1 && w2 == o.w2;
+	}
+
+	@Override
+	public String toString ()
+	{
+		return toSatoshiStyle ();
+	}
+}
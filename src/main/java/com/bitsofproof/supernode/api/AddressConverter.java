@@ -15,53 +15,18 @@
  */
 package com.bitsofproof.supernode.api;
 
-import java.math.BigInteger;
 import java.util.Arrays;
 
 public class AddressConverter
 {
-	private static final char[] b58 = "123456789ABCDEFGHJKLMNPQRSTUVWXYZabcdefghijkmnopqrstuvwxyz".toCharArray ();
-	private static final int[] r58 = new int[256];
-	static
-	{
-		for ( int i = 0; i < 256; ++i )
-		{
-			r58[i] = -1;
-		}
-		for ( int i = 0; i < b58.length; ++i )
-		{
-			r58[b58[i]] = i;
-		}
-	}
+	public static final int DEFAULT_ADDRESS_CACHE_SIZE = 20000;
+	// conversions of addresses with 20 byte hashes in both directions
+	private static volatile ClockCache<String, Address> decodedAddresses = new ClockCache<String, Address> (DEFAULT_ADDRESS_CACHE_SIZE);
+	private static volatile ClockCache<Address, String> encodedAddresses = new ClockCache<Address, String> (DEFAULT_ADDRESS_CACHE_SIZE);
 
 	public static String toBase58 (byte[] b)
 	{
-		if ( b.length == 0 )
-		{
-			return "";
-		}
-
-		int lz = 0;
-		while ( lz < b.length && b[lz] == 0 )
-		{
-			++lz;
-		}
-
-		StringBuffer s = new StringBuffer ();
-		BigInteger n = new BigInteger (1, b);
-		while ( n.compareTo (BigInteger.ZERO) > 0 )
-		{
-			BigInteger[] r = n.divideAndRemainder (BigInteger.valueOf (58));
-			n = r[0];
-			char digit = b58[r[1].intValue ()];
-			s.append (digit);
-		}
-		while ( lz > 0 )
-		{
-			--lz;
-			s.append ("1");
-		}
-		return s.reverse ().toString ();
+		return Base58.encode (b);
 	}
 
 	public static byte[] fromBase58WithChecksum (String s) throws ValidationException
@@ -86,65 +51,21 @@ public class AddressConverter
 
 	public static byte[] fromBase58 (String s) throws ValidationException
 	{
-		try
-		{
-			boolean leading = true;
-			int lz = 0;
-			BigInteger b = BigInteger.ZERO;
-			for ( char c : s.toCharArray () )
-			{
-				if ( leading && c == '1' )
-				{
-					++lz;
-				}
-				else
-				{
-					leading = false;
-					b = b.multiply (BigInteger.valueOf (58));
-					b = b.add (BigInteger.valueOf (r58[c]));
-				}
-			}
-			byte[] encoded = b.toByteArray ();
-			if ( encoded[0] == 0 )
-			{
-				if ( lz > 0 )
-				{
-					--lz;
-				}
-				else
-				{
-					byte[] e = new byte[encoded.length - 1];
-					System.arraycopy (encoded, 1, e, 0, e.length);
-					encoded = e;
-				}
-			}
-			byte[] result = new byte[encoded.length + lz];
-			System.arraycopy (encoded, 0, result, lz, encoded.length);
-
-			return result;
-		}
-		catch ( ArrayIndexOutOfBoundsException e )
-		{
-			throw new ValidationException ("Invalid character in address");
-		}
-		catch ( Exception e )
-		{
-			throw new ValidationException (e);
-		}
+		return Base58.decode (s);
 	}
 
 	public static byte[] fromSatoshiStyle (String s, ChainParameter chain) throws ValidationException
 	{
+		Address address = decodedAddresses.get (s);
+		if ( address != null )
+		{
+			checkVersion (address.getVersion (), chain);
+			return address.getHash ();
+		}
 		try
 		{
 			byte[] raw = fromBase58 (s);
-			if ( chain.isProduction () )
-			{
-				if ( raw[0] != 0 && raw[0] != 5 )
-				{ // 5 is multisig
-					throw new ValidationException ("invalid address for this chain");
-				}
-			}
+			checkVersion (raw[0] & 0xff, chain);
 			byte[] check = Hash.hash (raw, 0, raw.length - 4);
 			for ( int i = 0; i < 4; ++i )
 			{
@@ -155,6 +76,10 @@ public class AddressConverter
 			}
 			byte[] keyDigest = new byte[raw.length - 5];
 			System.arraycopy (raw, 1, keyDigest, 0, raw.length - 5);
+			if ( keyDigest.length == Address.HASH_LENGTH )
+			{
+				cache (new Address (raw[0] & 0xff, keyDigest), s);
+			}
 			return keyDigest;
 		}
 		catch ( Exception e )
@@ -163,13 +88,103 @@ public class AddressConverter
 		}
 	}
 
+	static void checkVersion (int version, ChainParameter chain) throws ValidationException
+	{
+		if ( chain.isProduction () )
+		{
+			if ( version != 0 && version != 5 )
+			{ // 5 is multisig
+				throw new ValidationException ("invalid address for this chain");
+			}
+		}
+	}
+
+	/**
+	 * address of any chain from its Base58 form
+	 */
+	public static Address parseAddress (String s) throws ValidationException
+	{
+		Address address = decodedAddresses.get (s);
+		if ( address == null )
+		{
+			byte[] data = fromBase58WithChecksum (s);
+			if ( data.length != Address.HASH_LENGTH + 1 )
+			{
+				throw new ValidationException ("Not an address " + s);
+			}
+			address = new Address (data[0] & 0xff, data, 1);
+			cache (address, s);
+		}
+		return address;
+	}
+
+	public static String toSatoshiStyle (Address address)
+	{
+		String s = encodedAddresses.get (address);
+		if ( s == null )
+		{
+			byte[] addressBytes = new byte[1 + Address.HASH_LENGTH + 4];
+			addressBytes[0] = (byte) address.getVersion ();
+			address.copyHashTo (addressBytes, 1);
+			byte[] check = Hash.hash (addressBytes, 0, Address.HASH_LENGTH + 1);
+			System.arraycopy (check, 0, addressBytes, Address.HASH_LENGTH + 1, 4);
+			s = Base58.encode (addressBytes);
+			cache (address, s);
+		}
+		return s;
+	}
+
+	private static void cache (Address address, String s)
+	{
+		decodedAddresses.put (s, address);
+		encodedAddresses.put (address, s);
+	}
+
+	/**
+	 * resize the caches of address conversions, their content is dropped
+	 */
+	public static void setAddressCacheSize (int size)
+	{
+		decodedAddresses = new ClockCache<String, Address> (size);
+		encodedAddresses = new ClockCache<Address, String> (size);
+	}
+
+	/**
+	 * cache of Base58 to address conversions, for its metrics
+	 */
+	public static ClockCache<String, Address> getDecodedAddressCache ()
+	{
+		return decodedAddresses;
+	}
+
+	/**
+	 * cache of address to Base58 conversions, for its metrics
+	 */
+	public static ClockCache<Address, String> getEncodedAddressCache ()
+	{
+		return encodedAddresses;
+	}
+
 	public static String toSatoshiStyle (byte[] keyDigest, boolean multisig, ChainParameter chain)
 	{
-		byte[] addressBytes = new byte[1 + keyDigest.length + 4];
-		addressBytes[0] = (byte) (multisig ? chain.getMultisigAddressFlag () : chain.getAddressFlag ());
-		System.arraycopy (keyDigest, 0, addressBytes, 1, keyDigest.length);
-		byte[] check = Hash.hash (addressBytes, 0, keyDigest.length + 1);
-		System.arraycopy (check, 0, addressBytes, keyDigest.length + 1, 4);
-		return toBase58 (addressBytes);
+		return toSatoshiStyle (keyDigest, 0, keyDigest.length, multisig, chain);
+	}
+
+	/**
+	 * address of a key digest at offset of an array, e.g. within a script
+	 */
+	public static String toSatoshiStyle (byte[] b, int offset, int length, boolean multisig, ChainParameter chain)
+	{
+		int flag = multisig ? chain.getMultisigAddressFlag () : chain.getAddressFlag ();
+		if ( length == Address.HASH_LENGTH )
+		{
+			return toSatoshiStyle (new Address (flag, b, offset));
+		}
+		byte[] addressBytes = new byte[1 + length + 4];
+		addressBytes[0] = (byte) flag;
+		System.arraycopy (b, offset, addressBytes, 1, length);
+		byte[] check = Hash.hash (addressBytes, 0, length + 1);
+		System.arraycopy (check, 0, addressBytes, length + 1, 4);
+		return Base58.encode (addressBytes);
 	}
 }
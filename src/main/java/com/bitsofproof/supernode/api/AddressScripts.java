@@ -0,0 +1,154 @@
+/*
+ * Copyright 2012 Tamas Blummer tamas@bitsofproof.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitsofproof.supernode.api;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Output scripts paying to a list of addresses, pay to address or pay to script hash by the address version. The
+ * scripts are written back to back into a single buffer, script i is at getOffset (i) up to getOffset (i + 1). Large
+ * lists are decoded and written in parallel.
+ */
+public class AddressScripts
+{
+	// lists of at least this many addresses are processed in parallel
+	public static final int PARALLEL_THRESHOLD = 4096;
+	// addresses processed by a single task
+	private static final int CHUNK = 1024;
+
+	private final byte[] scripts;
+	private final int[] offsets;
+
+	private AddressScripts (byte[] scripts, int[] offsets)
+	{
+		this.scripts = scripts;
+		this.offsets = offsets;
+	}
+
+	/**
+	 * scripts of the addresses, large lists in parallel on a shared pool
+	 */
+	public static AddressScripts fromAddresses (List<String> addresses, ChainParameter chain) throws ValidationException
+	{
+		return fromAddresses (addresses, chain, addresses.size () >= PARALLEL_THRESHOLD ? Parallel.getSharedExecutor () : null);
+	}
+
+	/**
+	 * scripts of the addresses, lists of at least PARALLEL_THRESHOLD addresses on the executor if not null
+	 *
+	 * @throws ValidationException
+	 *             for the first invalid address found, or one not valid on the chain
+	 */
+	public static AddressScripts fromAddresses (List<String> addresses, final ChainParameter chain, ExecutorService executor)
+			throws ValidationException
+	{
+		final String[] strings = addresses.toArray (new String[addresses.size ()]);
+		final int n = strings.length;
+		final Address[] decoded = new Address[n];
+		final int multisigFlag = chain.getMultisigAddressFlag ();
+		if ( n < PARALLEL_THRESHOLD )
+		{
+			executor = null;
+		}
+
+		// decoded without the address cache, as its synchronized updates would serialize the tasks
+		Parallel.run (n, CHUNK, executor, new Parallel.Range<ValidationException> ()
+		{
+			@Override
+			public void run (int from, int to) throws ValidationException
+			{
+				byte[] raw = new byte[1 + Address.HASH_LENGTH + 4];
+				byte[] check = new byte[32];
+				for ( int i = from; i < to; ++i )
+				{
+					if ( Base58.decode (strings[i], raw, 0) != raw.length )
+					{
+						throw new ValidationException ("Not an address " + strings[i]);
+					}
+					Hash.hash (raw, 0, Address.HASH_LENGTH + 1, check, 0);
+					for ( int j = 0; j < 4; ++j )
+					{
+						if ( check[j] != raw[Address.HASH_LENGTH + 1 + j] )
+						{
+							throw new ValidationException ("Checksum mismatch " + strings[i]);
+						}
+					}
+					decoded[i] = new Address (raw[0] & 0xff, raw, 1);
+					AddressConverter.checkVersion (decoded[i].getVersion (), chain);
+				}
+			}
+		});
+
+		final int[] offsets = new int[n + 1];
+		for ( int i = 0; i < n; ++i )
+		{
+			offsets[i + 1] = offsets[i] + (decoded[i].getVersion () == multisigFlag ? 23 : 25);
+		}
+
+		final byte[] scripts = new byte[offsets[n]];
+		Parallel.run (n, CHUNK, executor, new Parallel.Range<RuntimeException> ()
+		{
+			@Override
+			public void run (int from, int to)
+			{
+				byte[] hash = new byte[Address.HASH_LENGTH];
+				for ( int i = from; i < to; ++i )
+				{
+					decoded[i].copyHashTo (hash, 0);
+					if ( decoded[i].getVersion () == multisigFlag )
+					{
+						ScriptFormat.writePayToScriptHashScript (hash, 0, scripts, offsets[i]);
+					}
+					else
+					{
+						ScriptFormat.writePayToAddressScript (hash, 0, scripts, offsets[i]);
+					}
+				}
+			}
+		});
+		return new AddressScripts (scripts, offsets);
+	}
+
+	public int size ()
+	{
+		return offsets.length - 1;
+	}
+
+	/**
+	 * the buffer holding all scripts, not copied
+	 */
+	public byte[] getBuffer ()
+	{
+		return scripts;
+	}
+
+	public int getOffset (int i)
+	{
+		return offsets[i];
+	}
+
+	public int getLength (int i)
+	{
+		return offsets[i + 1] - offsets[i];
+	}
+
+	public byte[] getScript (int i)
+	{
+		return Arrays.copyOfRange (scripts, offsets[i], offsets[i + 1]);
+	}
+}
@@ -16,6 +16,7 @@
 package com.bitsofproof.supernode.api;
 
 import java.util.List;
+import java.util.concurrent.Future;
 
 /**
  * This is the API extensions to the bitsofproof supernode should build on
@@ -36,6 +37,24 @@ public interface BCSAPIBus
 	 */
 	public void sendBlock (Block block);
 
+	/**
+	 * send a signed transaction asynchronously, batched with others. Blocks while the send queue is full.
+	 * The transaction is encoded or copied before the call returns, it may be modified afterwards.
+	 * 
+	 * @param transaction
+	 * @return completes once the batch including the transaction is committed, fails if it could not be sent
+	 */
+	public Future<Void> sendTransactionAsync (Transaction transaction);
+
+	/**
+	 * send a mined block asynchronously, batched with others. Blocks while the send queue is full.
+	 * The block is encoded or copied before the call returns, it may be modified afterwards.
+	 * 
+	 * @param block
+	 * @return completes once the batch including the block is committed, fails if it could not be sent
+	 */
+	public Future<Void> sendBlockAsync (Block block);
+
 	/**
 	 * Register a transactions listener
 	 * 
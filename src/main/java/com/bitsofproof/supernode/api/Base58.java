@@ -0,0 +1,229 @@
+/*
+ * Copyright 2012 Tamas Blummer tamas@bitsofproof.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitsofproof.supernode.api;
+
+import java.util.Arrays;
+
+/**
+ * Base58 encoding without BigInteger. Encoding converts the bytes into limbs of base 58^5, each yielding five digits,
+ * decoding converts groups of five digits into limbs of base 2^32. Both have variants writing into buffers of the
+ * caller.
+ */
+public class Base58
+{
+	private static final char[] b58 = "123456789ABCDEFGHJKLMNPQRSTUVWXYZabcdefghijkmnopqrstuvwxyz".toCharArray ();
+	private static final int[] r58 = new int[128];
+	static
+	{
+		Arrays.fill (r58, -1);
+		for ( int i = 0; i < b58.length; ++i )
+		{
+			r58[b58[i]] = i;
+		}
+	}
+
+	// 58^5, the largest power of 58 below 2^31
+	private static final long LIMB = 656356768L;
+	private static final long[] POWERS = { 1L, 58L, 58L * 58, 58L * 58 * 58, 58L * 58 * 58 * 58, LIMB };
+
+	/**
+	 * @return upper bound of the number of characters encoding length bytes
+	 */
+	public static int maxEncodedLength (int length)
+	{
+		return length * 138 / 100 + 1;
+	}
+
+	/**
+	 * @return upper bound of the number of bytes encoded in length characters, each leading '1' is a byte
+	 */
+	public static int maxDecodedLength (int length)
+	{
+		return length;
+	}
+
+	public static String encode (byte[] b)
+	{
+		return encode (b, 0, b.length);
+	}
+
+	public static String encode (byte[] b, int offset, int length)
+	{
+		char[] out = new char[maxEncodedLength (length)];
+		return new String (out, 0, encode (b, offset, length, out, 0));
+	}
+
+	/**
+	 * @param out
+	 *            buffer with at least maxEncodedLength (length) characters after outOffset
+	 * @return number of characters written
+	 */
+	public static int encode (byte[] b, int offset, int length, char[] out, int outOffset)
+	{
+		int end = offset + length;
+		int lz = 0;
+		while ( offset + lz < end && b[offset + lz] == 0 )
+		{
+			++lz;
+		}
+
+		// little endian limbs of base 58^5, fed with 32 bit words of the input
+		int[] limbs = new int[(length - lz) * 8 / 29 + 2];
+		int used = 0;
+		int p = offset + lz;
+		int chunk = (end - p) % 4 == 0 ? 4 : (end - p) % 4;
+		while ( p < end )
+		{
+			long carry = 0;
+			for ( int i = 0; i < chunk; ++i )
+			{
+				carry = (carry << 8) | (b[p++] & 0xff);
+			}
+			int shift = chunk * 8;
+			for ( int i = 0; i < used; ++i )
+			{
+				long t = ((long) limbs[i] << shift) + carry;
+				limbs[i] = (int) (t % LIMB);
+				carry = t / LIMB;
+			}
+			while ( carry > 0 )
+			{
+				limbs[used++] = (int) (carry % LIMB);
+				carry /= LIMB;
+			}
+			chunk = 4;
+		}
+
+		int q = outOffset;
+		for ( int i = 0; i < lz; ++i )
+		{
+			out[q++] = '1';
+		}
+		if ( used > 0 )
+		{
+			int top = limbs[used - 1];
+			for ( int v = top; v > 0; v /= 58 )
+			{
+				++q;
+			}
+			for ( int v = top, j = q - 1; v > 0; v /= 58 )
+			{
+				out[j--] = b58[v % 58];
+			}
+			for ( int i = used - 2; i >= 0; --i )
+			{
+				int v = limbs[i];
+				for ( int j = 4; j >= 0; --j )
+				{
+					out[q + j] = b58[v % 58];
+					v /= 58;
+				}
+				q += 5;
+			}
+		}
+		return q - outOffset;
+	}
+
+	public static byte[] decode (CharSequence s) throws ValidationException
+	{
+		byte[] out = new byte[maxDecodedLength (s.length ())];
+		return Arrays.copyOf (out, decode (s, out, 0));
+	}
+
+	/**
+	 * @param out
+	 *            buffer for the decoded bytes, maxDecodedLength (s.length ()) after outOffset is always sufficient
+	 * @return number of bytes written
+	 * @throws ValidationException
+	 *             for characters not in the alphabet or if the decoded bytes do not fit into the buffer
+	 */
+	public static int decode (CharSequence s, byte[] out, int outOffset) throws ValidationException
+	{
+		int n = s.length ();
+		int lz = 0;
+		while ( lz < n && s.charAt (lz) == '1' )
+		{
+			++lz;
+		}
+
+		// little endian limbs of base 2^32, fed with groups of five digits
+		int[] limbs = new int[(n - lz) * 6 / 32 + 2];
+		int used = 0;
+		int p = lz;
+		int group = (n - p) % 5 == 0 ? 5 : (n - p) % 5;
+		while ( p < n )
+		{
+			long carry = 0;
+			for ( int i = 0; i < group; ++i )
+			{
+				char c = s.charAt (p++);
+				int d = c < 128 ? r58[c] : -1;
+				if ( d < 0 )
+				{
+					throw new ValidationException ("Invalid character in base58 at " + (p - 1));
+				}
+				carry = carry * 58 + d;
+			}
+			long power = POWERS[group];
+			for ( int i = 0; i < used; ++i )
+			{
+				long t = (limbs[i] & 0xffffffffL) * power + carry;
+				limbs[i] = (int) t;
+				carry = t >>> 32;
+			}
+			while ( carry > 0 )
+			{
+				limbs[used++] = (int) carry;
+				carry >>>= 32;
+			}
+			group = 5;
+		}
+
+		int topBytes = 0;
+		if ( used > 0 )
+		{
+			for ( int v = limbs[used - 1]; v != 0; v >>>= 8 )
+			{
+				++topBytes;
+			}
+		}
+		int length = lz + (used > 0 ? topBytes + (used - 1) * 4 : 0);
+		if ( outOffset + length > out.length )
+		{
+			throw new ValidationException ("Decoded base58 does not fit into " + (out.length - outOffset) + " bytes");
+		}
+		int q = outOffset;
+		for ( int i = 0; i < lz; ++i )
+		{
+			out[q++] = 0;
+		}
+		if ( used > 0 )
+		{
+			for ( int j = topBytes - 1; j >= 0; --j )
+			{
+				out[q++] = (byte) (limbs[used - 1] >>> (j * 8));
+			}
+			for ( int i = used - 2; i >= 0; --i )
+			{
+				out[q++] = (byte) (limbs[i] >>> 24);
+				out[q++] = (byte) (limbs[i] >>> 16);
+				out[q++] = (byte) (limbs[i] >>> 8);
+				out[q++] = (byte) limbs[i];
+			}
+		}
+		return length;
+	}
+}
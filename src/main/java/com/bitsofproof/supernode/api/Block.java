@@ -15,9 +15,12 @@
  */
 package com.bitsofproof.supernode.api;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -29,14 +32,23 @@ public class Block implements Serializable, Cloneable
 {
 	private static final long serialVersionUID = 2846027750944390897L;
 
-	private String hash;
+	// hashes are serialized as hex strings, as they were before being stored binary
+	private static final ObjectStreamField[] serialPersistentFields = { new ObjectStreamField ("hash", String.class),
+			new ObjectStreamField ("version", Long.TYPE), new ObjectStreamField ("previousHash", String.class),
+			new ObjectStreamField ("merkleRoot", String.class), new ObjectStreamField ("createTime", Long.TYPE),
+			new ObjectStreamField ("difficultyTarget", Long.TYPE), new ObjectStreamField ("nonce", Long.TYPE),
+			new ObjectStreamField ("transactions", List.class) };
+
+	private Hash hash;
 	private long version;
-	private String previousHash;
-	private String merkleRoot;
+	private Hash previousHash;
+	private Hash merkleRoot;
 	private long createTime;
 	private long difficultyTarget;
 	private long nonce;
 	List<Transaction> transactions;
+	// kept from the last merkle root computation for incremental template updates
+	private transient MerkleTree merkleTree;
 
 	@Override
 	public Block clone () throws CloneNotSupportedException
@@ -48,6 +60,7 @@ public class Block implements Serializable, Cloneable
 		c.merkleRoot = merkleRoot;
 		c.difficultyTarget = difficultyTarget;
 		c.nonce = nonce;
+		c.merkleTree = null;
 		if ( transactions != null )
 		{
 			c.transactions = new ArrayList<Transaction> (transactions.size ());
@@ -60,6 +73,11 @@ public class Block implements Serializable, Cloneable
 	}
 
 	public String getHash ()
+	{
+		return hash == null ? null : hash.toString ();
+	}
+
+	public Hash getBinaryHash ()
 	{
 		return hash;
 	}
@@ -76,10 +94,20 @@ public class Block implements Serializable, Cloneable
 
 	public String getPreviousHash ()
 	{
-		return previousHash;
+		return previousHash == null ? null : previousHash.toString ();
 	}
 
 	public void setPreviousHash (String previousHash)
+	{
+		this.previousHash = previousHash == null ? null : new Hash (previousHash);
+	}
+
+	public Hash getBinaryPreviousHash ()
+	{
+		return previousHash;
+	}
+
+	public void setBinaryPreviousHash (Hash previousHash)
 	{
 		this.previousHash = previousHash;
 	}
@@ -87,18 +115,31 @@ public class Block implements Serializable, Cloneable
 	public void computeHash ()
 	{
 		computeMerkleRoot ();
+		computeHeaderHash ();
+	}
 
-		WireFormat.Writer writer = new WireFormat.Writer ();
-		toWireHeaderOnly (writer);
-		WireFormat.Reader reader = new WireFormat.Reader (writer.toByteArray ());
-
-		hash = reader.hash ().toString ();
+	private void computeHeaderHash ()
+	{
+		WireFormat.Writer writer = WireFormat.Writer.pooled ();
+		try
+		{
+			toWireHeaderOnly (writer);
+			hash = writer.hash ();
+		}
+		finally
+		{
+			writer.release ();
+		}
 
-		if ( transactions != null )
+		if ( transactions instanceof LazyTransactionList )
+		{
+			((LazyTransactionList) transactions).setBlockHash (hash);
+		}
+		else if ( transactions != null )
 		{
 			for ( Transaction t : transactions )
 			{
-				t.setBlockHash (hash);
+				t.setBinaryBlockHash (hash);
 			}
 		}
 	}
@@ -107,51 +148,111 @@ public class Block implements Serializable, Cloneable
 	{
 		if ( transactions != null )
 		{
-			ArrayList<byte[]> tree = new ArrayList<byte[]> ();
-			int nt = transactions.size ();
+			merkleTree = MerkleTree.fromTransactions (transactions);
+			merkleTree.compute ();
+			merkleRoot = merkleTree.getRoot ();
+		}
+	}
 
-			for ( Transaction t : transactions )
-			{
-				tree.add (new Hash (t.getHash ()).toByteArray ());
-			}
-			int levelOffset = 0;
-			try
-			{
-				MessageDigest digest = MessageDigest.getInstance ("SHA-256");
+	/**
+	 * The merkle tree of the transactions, kept after computation. Not to be modified other than through setCoinbase and
+	 * addTransaction.
+	 */
+	public MerkleTree getMerkleTree ()
+	{
+		if ( merkleTree == null || transactions == null || merkleTree.getLevelSize (0) != transactions.size () )
+		{
+			computeMerkleRoot ();
+		}
+		return merkleTree;
+	}
 
-				for ( int levelSize = nt; levelSize > 1; levelSize = (levelSize + 1) / 2 )
-				{
-					for ( int left = 0; left < levelSize; left += 2 )
-					{
-						int right = Math.min (left + 1, levelSize - 1);
-						byte[] leftBytes = tree.get (levelOffset + left);
-						byte[] rightBytes = tree.get (levelOffset + right);
-						digest.update (leftBytes);
-						digest.update (rightBytes);
-						tree.add (digest.digest (digest.digest ()));
-					}
-					levelOffset += levelSize;
-				}
-			}
-			catch ( NoSuchAlgorithmException e )
-			{
-			}
+	/**
+	 * Replace the coinbase of a block template, or add it to a template without transactions. The coinbase is hashed, the
+	 * merkle root is updated with the hashes on the coinbase's path only and the block hash is recomputed.
+	 */
+	public void setCoinbase (Transaction coinbase)
+	{
+		coinbase.computeHash ();
+		if ( transactions == null || transactions.isEmpty () )
+		{
+			addTransaction (coinbase);
+			return;
+		}
+		MerkleTree tree = getMerkleTree ();
+		transactions.set (0, coinbase);
+		tree.setLeaf (0, coinbase.getBinaryHash ());
+		merkleRoot = tree.getRoot ();
+		computeHeaderHash ();
+	}
 
-			merkleRoot = new Hash (tree.get (tree.size () - 1)).toString ();
+	/**
+	 * Append a transaction to a block template. The merkle root is updated recomputing the right spine of the tree only
+	 * and the block hash is recomputed. The transaction is hashed if its hash was not yet computed.
+	 */
+	public void addTransaction (Transaction transaction)
+	{
+		if ( transaction.getBinaryHash () == null )
+		{
+			transaction.computeHash ();
 		}
+		if ( transactions == null )
+		{
+			transactions = new ArrayList<Transaction> ();
+		}
+		else if ( transactions instanceof LazyTransactionList )
+		{
+			transactions = new ArrayList<Transaction> (transactions);
+		}
+		MerkleTree tree = getMerkleTree ();
+		transactions.add (transaction);
+		tree.addLeaf (transaction.getBinaryHash ());
+		merkleRoot = tree.getRoot ();
+		computeHeaderHash ();
+	}
+
+	/**
+	 * Merkle branch proving the inclusion of the transaction at index
+	 */
+	public List<Hash> getMerkleBranch (int index)
+	{
+		return getMerkleTree ().getBranch (index);
+	}
+
+	/**
+	 * check a merkle branch against the merkle root of this block, that needs only the header
+	 */
+	public boolean verifyMerkleBranch (Hash transactionHash, int index, List<Hash> branch)
+	{
+		return MerkleTree.verifyBranch (transactionHash, index, branch, merkleRoot);
 	}
 
 	public String getMerkleRoot ()
 	{
-		return merkleRoot;
+		return merkleRoot == null ? null : merkleRoot.toString ();
 	}
 
 	public void setHash (String hash)
+	{
+		this.hash = hash == null ? null : new Hash (hash);
+	}
+
+	public void setBinaryHash (Hash hash)
 	{
 		this.hash = hash;
 	}
 
 	public void setMerkleRoot (String merkleRoot)
+	{
+		this.merkleRoot = merkleRoot == null ? null : new Hash (merkleRoot);
+	}
+
+	public Hash getBinaryMerkleRoot ()
+	{
+		return merkleRoot;
+	}
+
+	public void setBinaryMerkleRoot (Hash merkleRoot)
 	{
 		this.merkleRoot = merkleRoot;
 	}
@@ -194,13 +295,37 @@ public class Block implements Serializable, Cloneable
 	public void setTransactions (List<Transaction> transactions)
 	{
 		this.transactions = transactions;
+		merkleTree = null;
+	}
+
+	public int getWireSize ()
+	{
+		int size = 80;
+		if ( transactions instanceof LazyTransactionList )
+		{
+			size += WireFormat.varIntSize (transactions.size ());
+			size += ((LazyTransactionList) transactions).getWireSize ();
+		}
+		else if ( transactions != null )
+		{
+			size += WireFormat.varIntSize (transactions.size ());
+			for ( Transaction t : transactions )
+			{
+				size += t.getWireSize ();
+			}
+		}
+		else
+		{
+			size += WireFormat.varIntSize (0);
+		}
+		return size;
 	}
 
 	public void toWireHeaderOnly (WireFormat.Writer writer)
 	{
 		writer.writeUint32 (version);
-		writer.writeHash (new Hash (previousHash));
-		writer.writeHash (new Hash (merkleRoot));
+		writer.writeHash (previousHash);
+		writer.writeHash (merkleRoot);
 		writer.writeUint32 (createTime);
 		writer.writeUint32 (difficultyTarget);
 		writer.writeUint32 (nonce);
@@ -209,7 +334,12 @@ public class Block implements Serializable, Cloneable
 	public void toWire (WireFormat.Writer writer)
 	{
 		toWireHeaderOnly (writer);
-		if ( transactions != null )
+		if ( transactions instanceof LazyTransactionList )
+		{
+			writer.writeVarInt (transactions.size ());
+			((LazyTransactionList) transactions).toWire (writer);
+		}
+		else if ( transactions != null )
 		{
 			writer.writeVarInt (transactions.size ());
 			for ( Transaction t : transactions )
@@ -223,19 +353,60 @@ public class Block implements Serializable, Cloneable
 		}
 	}
 
-	public static Block fromWire (WireFormat.Reader reader)
+	/**
+	 * decode the 80 byte header only, transactions are left null
+	 */
+	public static Block fromWireHeaderOnly (WireFormat.Reader reader)
 	{
 		Block b = new Block ();
 
 		int cursor = reader.getCursor ();
 		b.version = reader.readUint32 ();
 
-		b.previousHash = reader.readHash ().toString ();
-		b.merkleRoot = reader.readHash ().toString ();
+		b.previousHash = reader.readHash ();
+		b.merkleRoot = reader.readHash ();
 		b.createTime = reader.readUint32 ();
 		b.difficultyTarget = reader.readUint32 ();
 		b.nonce = reader.readUint32 ();
-		b.hash = reader.hash (cursor, 80).toString ();
+		b.hash = reader.hash (cursor, 80);
+		return b;
+	}
+
+	/**
+	 * Decode the header, transactions are decoded only as they are accessed. Their boundaries are found without decoding
+	 * them and the reader is advanced past the block. Transactions are read in place if the reader wraps an array or
+	 * buffer, that must not be modified thereafter.
+	 */
+	public static Block fromWireLazy (WireFormat.Reader reader)
+	{
+		Block b = fromWireHeaderOnly (reader);
+		long nt = reader.readVarInt ();
+		int start = reader.getCursor ();
+		// a transaction has at least 10 bytes
+		if ( nt < 0 || nt > (reader.length () - start) / 10 )
+		{
+			throw new IndexOutOfBoundsException ("Block claims " + nt + " transactions in " + (reader.length () - start) + " bytes");
+		}
+		if ( nt > 0 )
+		{
+			int[] offsets = new int[(int) nt + 1];
+			for ( int i = 0; i < nt; ++i )
+			{
+				offsets[i] = reader.getCursor () - start;
+				Transaction.skipWire (reader);
+			}
+			offsets[(int) nt] = reader.getCursor () - start;
+			ByteBuffer wire = reader.slice (start, offsets[(int) nt]);
+			LazyTransactionList transactions = new LazyTransactionList (wire, offsets);
+			transactions.setBlockHash (b.hash);
+			b.transactions = transactions;
+		}
+		return b;
+	}
+
+	public static Block fromWire (WireFormat.Reader reader)
+	{
+		Block b = fromWireHeaderOnly (reader);
 		long nt = reader.readVarInt ();
 		if ( nt > 0 )
 		{
@@ -250,25 +421,54 @@ public class Block implements Serializable, Cloneable
 
 	public static Block fromWireDump (String dump)
 	{
-		return fromWire (new WireFormat.Reader (ByteUtils.fromHex (dump)));
+		byte[] wire = ByteUtils.fromHex (dump);
+		return fromWire (new WireFormat.Reader (wire, 0, wire.length));
 	}
 
 	public String toWireDump ()
 	{
-		WireFormat.Writer writer = new WireFormat.Writer ();
+		WireFormat.Writer writer = new WireFormat.Writer (getWireSize ());
 		toWire (writer);
 		return ByteUtils.toHex (writer.toByteArray ());
 	}
 
+	private void writeObject (ObjectOutputStream out) throws IOException
+	{
+		ObjectOutputStream.PutField fields = out.putFields ();
+		fields.put ("hash", getHash ());
+		fields.put ("version", version);
+		fields.put ("previousHash", getPreviousHash ());
+		fields.put ("merkleRoot", getMerkleRoot ());
+		fields.put ("createTime", createTime);
+		fields.put ("difficultyTarget", difficultyTarget);
+		fields.put ("nonce", nonce);
+		fields.put ("transactions", transactions);
+		out.writeFields ();
+	}
+
+	@SuppressWarnings ("unchecked")
+	private void readObject (ObjectInputStream in) throws IOException, ClassNotFoundException
+	{
+		ObjectInputStream.GetField fields = in.readFields ();
+		setHash ((String) fields.get ("hash", null));
+		version = fields.get ("version", 0L);
+		setPreviousHash ((String) fields.get ("previousHash", null));
+		setMerkleRoot ((String) fields.get ("merkleRoot", null));
+		createTime = fields.get ("createTime", 0L);
+		difficultyTarget = fields.get ("difficultyTarget", 0L);
+		nonce = fields.get ("nonce", 0L);
+		transactions = (List<Transaction>) fields.get ("transactions", null);
+	}
+
 	public JSONObject toJSON ()
 	{
 		JSONObject o = new JSONObject ();
 		try
 		{
-			o.put ("hash", hash);
+			o.put ("hash", getHash ());
 			o.put ("version", version);
-			o.put ("previous", previousHash);
-			o.put ("merkleRoot", merkleRoot);
+			o.put ("previous", getPreviousHash ());
+			o.put ("merkleRoot", getMerkleRoot ());
 			o.put ("createTime", createTime);
 			o.put ("difficultyTarget", difficultyTarget);
 			o.put ("nonce", nonce);
@@ -295,7 +495,7 @@ public class Block implements Serializable, Cloneable
 		block.createTime = o.getLong ("createTime");
 		block.difficultyTarget = o.getLong ("difficultyTarget");
 		block.nonce = o.getLong ("nonce");
-		block.previousHash = o.getString ("previous");
+		block.setPreviousHash (o.getString ("previous"));
 		block.transactions = new ArrayList<Transaction> ();
 		JSONArray tl = o.getJSONArray ("transactions");
 		if ( tl != null )
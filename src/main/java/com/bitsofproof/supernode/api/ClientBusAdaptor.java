@@ -15,11 +15,16 @@
  */
 package com.bitsofproof.supernode.api;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 import javax.jms.Connection;
 import javax.jms.Destination;
@@ -28,7 +33,6 @@ import javax.jms.Message;
 import javax.jms.MessageConsumer;
 import javax.jms.MessageListener;
 import javax.jms.MessageProducer;
-import javax.jms.ObjectMessage;
 import javax.jms.Session;
 
 import org.apache.activemq.ActiveMQConnectionFactory;
@@ -38,6 +42,13 @@ import org.slf4j.LoggerFactory;
 public class ClientBusAdaptor implements BCSAPIBus
 {
 	private static final Logger log = LoggerFactory.getLogger (ClientBusAdaptor.class);
+
+	public static final int DEFAULT_SEND_QUEUE_SIZE = 1000;
+	public static final int DEFAULT_SEND_BATCH_SIZE = 100;
+
+	// milliseconds destroy waits for the sender thread to finish its batch
+	private static final long SENDER_JOIN_TIMEOUT = 10000;
+
 	private Connection connection;
 	private Session session;
 
@@ -55,6 +66,82 @@ public class ClientBusAdaptor implements BCSAPIBus
 	private MessageProducer transactionProducer;
 	private MessageProducer blockProducer;
 
+	// format of messages sent, messages of either format are received
+	private volatile MessageCodec.Format messageFormat = MessageCodec.Format.SERIALIZED;
+
+	private int sendQueueSize = DEFAULT_SEND_QUEUE_SIZE;
+	private volatile int sendBatchSize = DEFAULT_SEND_BATCH_SIZE;
+
+	// asynchronous sends, committed in batches by the sender thread on its own transacted session
+	private BlockingQueue<PendingSend> sendQueue;
+	private Thread sender;
+	private volatile boolean closed;
+
+	private static class SendFuture extends FutureTask<Void>
+	{
+		public SendFuture ()
+		{
+			super (new Runnable ()
+			{
+				@Override
+				public void run ()
+				{
+				}
+			}, null);
+		}
+
+		public void succeed ()
+		{
+			set (null);
+		}
+
+		public void fail (Throwable cause)
+		{
+			setException (cause);
+		}
+	}
+
+	// content captured when the send was requested: the wire format body, or a private copy to serialize
+	private static class PendingSend
+	{
+		private final boolean block;
+		private final byte[] body;
+		private final Serializable copy;
+		private final SendFuture future;
+
+		public PendingSend (boolean block, byte[] body, Serializable copy, SendFuture future)
+		{
+			this.block = block;
+			this.body = body;
+			this.copy = copy;
+			this.future = future;
+		}
+	}
+
+	/**
+	 * capacity of the queue of asynchronous sends, senders block while it is full
+	 */
+	public void setSendQueueSize (int sendQueueSize)
+	{
+		this.sendQueueSize = sendQueueSize;
+	}
+
+	/**
+	 * maximal number of asynchronous sends committed together
+	 */
+	public void setSendBatchSize (int sendBatchSize)
+	{
+		this.sendBatchSize = sendBatchSize;
+	}
+
+	/**
+	 * format of the messages sent and of the topics consumed, must be set before init
+	 */
+	public void setMessageFormat (MessageCodec.Format messageFormat)
+	{
+		this.messageFormat = messageFormat;
+	}
+
 	public void setClientId (String clientId)
 	{
 		this.clientId = clientId;
@@ -77,7 +164,7 @@ public class ClientBusAdaptor implements BCSAPIBus
 
 	private void addMessageListener (String topic, MessageListener listener) throws JMSException
 	{
-		Destination destination = session.createTopic (topic);
+		Destination destination = session.createTopic (MessageCodec.topic (topic, messageFormat));
 		MessageConsumer consumer = session.createConsumer (destination);
 		consumer.setMessageListener (listener);
 	}
@@ -96,18 +183,18 @@ public class ClientBusAdaptor implements BCSAPIBus
 				@Override
 				public void onMessage (Message arg0)
 				{
-					ObjectMessage o = (ObjectMessage) arg0;
-					for ( TransactionListener l : transactionListener )
+					try
 					{
-						try
-						{
-							l.process ((Transaction) o.getObject ());
-						}
-						catch ( JMSException e )
+						Transaction t = (Transaction) MessageCodec.decode (arg0);
+						for ( TransactionListener l : transactionListener )
 						{
-							log.error ("Transaction message error", e);
+							l.process (t);
 						}
 					}
+					catch ( JMSException e )
+					{
+						log.error ("Transaction message error", e);
+					}
 				}
 			});
 			addMessageListener ("trunk", new MessageListener ()
@@ -117,7 +204,7 @@ public class ClientBusAdaptor implements BCSAPIBus
 				{
 					try
 					{
-						TrunkUpdateMessage tu = (TrunkUpdateMessage) ((ObjectMessage) arg0).getObject ();
+						TrunkUpdateMessage tu = (TrunkUpdateMessage) MessageCodec.decode (arg0);
 						for ( TrunkListener l : trunkListener )
 						{
 							l.trunkUpdate (tu.getRemoved (), tu.getAdded ());
@@ -134,22 +221,23 @@ public class ClientBusAdaptor implements BCSAPIBus
 				@Override
 				public void onMessage (Message arg0)
 				{
-					ObjectMessage o = (ObjectMessage) arg0;
-					for ( TemplateListener l : blockTemplateListener )
+					try
 					{
-						try
+						Block b = (Block) MessageCodec.decode (arg0);
+						for ( TemplateListener l : blockTemplateListener )
 						{
-							l.workOn ((Block) o.getObject ());
-						}
-						catch ( JMSException e )
-						{
-							log.error ("Block message error", e);
+							l.workOn (b);
 						}
 					}
+					catch ( JMSException e )
+					{
+						log.error ("Block message error", e);
+					}
 				}
 			});
-			transactionProducer = session.createProducer (session.createTopic ("newTransaction"));
-			blockProducer = session.createProducer (session.createTopic ("newBlock"));
+			transactionProducer = session.createProducer (session.createTopic (MessageCodec.topic ("newTransaction", messageFormat)));
+			blockProducer = session.createProducer (session.createTopic (MessageCodec.topic ("newBlock", messageFormat)));
+			startSender ();
 		}
 		catch ( JMSException e )
 		{
@@ -158,8 +246,186 @@ public class ClientBusAdaptor implements BCSAPIBus
 
 	}
 
+	private void startSender () throws JMSException
+	{
+		final Session sendSession = connection.createSession (true, Session.SESSION_TRANSACTED);
+		final MessageProducer transactions = sendSession.createProducer (sendSession.createTopic (MessageCodec.topic ("newTransaction",
+				messageFormat)));
+		final MessageProducer blocks = sendSession.createProducer (sendSession.createTopic (MessageCodec.topic ("newBlock", messageFormat)));
+		sendQueue = new ArrayBlockingQueue<PendingSend> (sendQueueSize);
+		sender = new Thread (new Runnable ()
+		{
+			@Override
+			public void run ()
+			{
+				List<PendingSend> batch = new ArrayList<PendingSend> ();
+				try
+				{
+					while ( !closed )
+					{
+						batch.add (sendQueue.take ());
+						sendQueue.drainTo (batch, sendBatchSize - 1);
+						sendBatch (sendSession, transactions, blocks, batch);
+						batch.clear ();
+					}
+				}
+				catch ( InterruptedException e )
+				{
+				}
+				finally
+				{
+					// whatever ended the loop, no further sends are accepted
+					closed = true;
+					for ( PendingSend p : batch )
+					{
+						p.future.fail (new JMSException ("Bus closed"));
+					}
+					failPending ();
+					try
+					{
+						sendSession.close ();
+					}
+					catch ( JMSException e )
+					{
+					}
+				}
+			}
+		}, "bus-sender");
+		sender.setDaemon (true);
+		sender.start ();
+	}
+
+	private void sendBatch (Session sendSession, MessageProducer transactions, MessageProducer blocks, List<PendingSend> batch)
+	{
+		try
+		{
+			for ( PendingSend p : batch )
+			{
+				if ( p.future.isCancelled () )
+				{
+					continue;
+				}
+				Message m = p.body != null ? MessageCodec.bytesMessage (sendSession, p.body) : sendSession.createObjectMessage (p.copy);
+				if ( p.block )
+				{
+					blocks.send (m);
+				}
+				else
+				{
+					transactions.send (m);
+				}
+			}
+			sendSession.commit ();
+			for ( PendingSend p : batch )
+			{
+				p.future.succeed ();
+			}
+		}
+		catch ( JMSException e )
+		{
+			failBatch (sendSession, batch, e);
+		}
+		catch ( RuntimeException e )
+		{
+			// e.g. content that can not be serialized, the sender goes on with the next batch
+			failBatch (sendSession, batch, e);
+		}
+	}
+
+	private void failBatch (Session sendSession, List<PendingSend> batch, Exception e)
+	{
+		log.error ("Can not send batch of " + batch.size (), e);
+		try
+		{
+			sendSession.rollback ();
+		}
+		catch ( JMSException re )
+		{
+		}
+		for ( PendingSend p : batch )
+		{
+			p.future.fail (e);
+		}
+	}
+
+	private void failPending ()
+	{
+		List<PendingSend> pending = new ArrayList<PendingSend> ();
+		sendQueue.drainTo (pending);
+		for ( PendingSend p : pending )
+		{
+			p.future.fail (new JMSException ("Bus closed"));
+		}
+	}
+
+	private Future<Void> enqueue (Serializable content)
+	{
+		SendFuture future = new SendFuture ();
+		if ( sendQueue == null || closed )
+		{
+			future.fail (new JMSException ("Bus not connected"));
+			return future;
+		}
+		PendingSend pending;
+		try
+		{
+			pending = capture (content, future);
+		}
+		catch ( RuntimeException e )
+		{
+			future.fail (e);
+			return future;
+		}
+		try
+		{
+			sendQueue.put (pending);
+			if ( closed )
+			{
+				failPending ();
+			}
+		}
+		catch ( InterruptedException e )
+		{
+			Thread.currentThread ().interrupt ();
+			future.fail (e);
+		}
+		return future;
+	}
+
+	// encoded or copied on the caller's thread, so the caller may modify the content once the send is requested
+	private PendingSend capture (Serializable content, SendFuture future)
+	{
+		boolean block = content instanceof Block;
+		if ( messageFormat == MessageCodec.Format.WIRE )
+		{
+			return new PendingSend (block, block ? MessageCodec.toBytes ((Block) content) : MessageCodec.toBytes ((Transaction) content), null,
+					future);
+		}
+		try
+		{
+			return new PendingSend (block, null, block ? ((Block) content).clone () : ((Transaction) content).clone (), future);
+		}
+		catch ( CloneNotSupportedException e )
+		{
+			throw new RuntimeException (e);
+		}
+	}
+
 	public void destroy ()
 	{
+		closed = true;
+		if ( sender != null )
+		{
+			sender.interrupt ();
+			try
+			{
+				sender.join (SENDER_JOIN_TIMEOUT);
+			}
+			catch ( InterruptedException e )
+			{
+				Thread.currentThread ().interrupt ();
+			}
+		}
 		try
 		{
 			session.close ();
@@ -201,25 +467,25 @@ public class ClientBusAdaptor implements BCSAPIBus
 					al = new ArrayList<TransactionListener> ();
 					addressListener.put (address, al);
 
-					Destination blockDestination = session.createTopic (address);
+					Destination blockDestination = session.createTopic (MessageCodec.topic (address, messageFormat));
 					MessageConsumer blockConsumer = session.createConsumer (blockDestination);
 					blockConsumer.setMessageListener (new MessageListener ()
 					{
 						@Override
 						public void onMessage (Message arg0)
 						{
-							ObjectMessage o = (ObjectMessage) arg0;
-							for ( TransactionListener l : addressListener.get (address) )
+							try
 							{
-								try
+								Transaction t = (Transaction) MessageCodec.decode (arg0);
+								for ( TransactionListener l : addressListener.get (address) )
 								{
-									l.process ((Transaction) o.getObject ());
-								}
-								catch ( JMSException e )
-								{
-									log.error ("Transaction message error", e);
+									l.process (t);
 								}
 							}
+							catch ( JMSException e )
+							{
+								log.error ("Transaction message error", e);
+							}
 						}
 					});
 				}
@@ -237,7 +503,7 @@ public class ClientBusAdaptor implements BCSAPIBus
 	{
 		try
 		{
-			transactionProducer.send (session.createObjectMessage (transaction));
+			transactionProducer.send (MessageCodec.encode (session, transaction, messageFormat));
 		}
 		catch ( JMSException e )
 		{
@@ -250,11 +516,23 @@ public class ClientBusAdaptor implements BCSAPIBus
 	{
 		try
 		{
-			blockProducer.send (session.createObjectMessage (block));
+			blockProducer.send (MessageCodec.encode (session, block, messageFormat));
 		}
 		catch ( JMSException e )
 		{
 			log.error ("Can not send transaction", e);
 		}
 	}
+
+	@Override
+	public Future<Void> sendTransactionAsync (Transaction transaction)
+	{
+		return enqueue (transaction);
+	}
+
+	@Override
+	public Future<Void> sendBlockAsync (Block block)
+	{
+		return enqueue (block);
+	}
 }
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2012 Tamas Blummer tamas@bitsofproof.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitsofproof.supernode.api;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded cache evicting with the CLOCK algorithm, an approximation of LRU. Lookups do not lock, a hit only sets the
+ * reference bit of the entry. Insertions are serialized, the clock hand sweeps the fixed ring of entries, clearing
+ * reference bits until it finds an entry not used since its last pass and replaces that.
+ */
+public class ClockCache<K, V>
+{
+	private static class Entry<K, V>
+	{
+		final K key;
+		final V value;
+		final int slot;
+		volatile boolean referenced;
+
+		Entry (K key, V value, int slot)
+		{
+			this.key = key;
+			this.value = value;
+			this.slot = slot;
+		}
+	}
+
+	private final int capacity;
+	private final ConcurrentHashMap<K, Entry<K, V>> index;
+	private final Entry<K, V>[] ring;
+	private int size;
+	private int hand;
+
+	private final AtomicLong hits = new AtomicLong ();
+	private final AtomicLong misses = new AtomicLong ();
+
+	@SuppressWarnings ({ "unchecked", "rawtypes" })
+	public ClockCache (int capacity)
+	{
+		if ( capacity <= 0 )
+		{
+			throw new IllegalArgumentException ("Capacity must be positive");
+		}
+		this.capacity = capacity;
+		index = new ConcurrentHashMap<K, Entry<K, V>> (capacity * 4 / 3 + 1);
+		ring = new Entry[capacity];
+	}
+
+	/**
+	 * @return cached value or null
+	 */
+	public V get (K key)
+	{
+		Entry<K, V> e = index.get (key);
+		if ( e == null )
+		{
+			misses.incrementAndGet ();
+			return null;
+		}
+		if ( !e.referenced )
+		{
+			e.referenced = true;
+		}
+		hits.incrementAndGet ();
+		return e.value;
+	}
+
+	public synchronized void put (K key, V value)
+	{
+		int slot;
+		Entry<K, V> old = index.get (key);
+		if ( old != null )
+		{
+			slot = old.slot;
+		}
+		else if ( size < capacity )
+		{
+			slot = size++;
+		}
+		else
+		{
+			while ( ring[hand].referenced )
+			{
+				ring[hand].referenced = false;
+				hand = (hand + 1) % capacity;
+			}
+			slot = hand;
+			index.remove (ring[slot].key, ring[slot]);
+			hand = (hand + 1) % capacity;
+		}
+		Entry<K, V> e = new Entry<K, V> (key, value, slot);
+		ring[slot] = e;
+		index.put (key, e);
+	}
+
+	public synchronized void clear ()
+	{
+		index.clear ();
+		for ( int i = 0; i < size; ++i )
+		{
+			ring[i] = null;
+		}
+		size = 0;
+		hand = 0;
+	}
+
+	public int size ()
+	{
+		return index.size ();
+	}
+
+	public int getCapacity ()
+	{
+		return capacity;
+	}
+
+	public long getHits ()
+	{
+		return hits.get ();
+	}
+
+	public long getMisses ()
+	{
+		return misses.get ();
+	}
+
+	/**
+	 * @return ratio of hits to lookups, 0 if there were none
+	 */
+	public double getHitRatio ()
+	{
+		long h = hits.get ();
+		long total = h + misses.get ();
+		return total == 0 ? 0.0 : (double) h / total;
+	}
+}
@@ -18,10 +18,8 @@ package com.bitsofproof.supernode.api;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.security.SecureRandom;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.Set;
 
 import org.bouncycastle.asn1.ASN1InputStream;
 import org.bouncycastle.asn1.ASN1Integer;
@@ -33,13 +31,11 @@ import org.bouncycastle.asn1.DERTaggedObject;
 import org.bouncycastle.asn1.DLSequence;
 import org.bouncycastle.asn1.sec.SECNamedCurves;
 import org.bouncycastle.asn1.x9.X9ECParameters;
-import org.bouncycastle.crypto.AsymmetricCipherKeyPair;
-import org.bouncycastle.crypto.generators.ECKeyPairGenerator;
 import org.bouncycastle.crypto.params.ECDomainParameters;
-import org.bouncycastle.crypto.params.ECKeyGenerationParameters;
 import org.bouncycastle.crypto.params.ECPrivateKeyParameters;
 import org.bouncycastle.crypto.params.ECPublicKeyParameters;
 import org.bouncycastle.crypto.signers.ECDSASigner;
+import org.bouncycastle.math.ec.ECPoint;
 
 public class ECKeyPair
 {
@@ -47,8 +43,43 @@ public class ECKeyPair
 	private static final X9ECParameters curve = SECNamedCurves.getByName ("secp256k1");
 	private static final ECDomainParameters domain = new ECDomainParameters (curve.getCurve (), curve.getG (), curve.getN (), curve.getH ());
 
-	private static final int signatureCacheLimit = 5000;
-	private static final Set<String> validSignatures = new HashSet<String> ();
+	public static final int DEFAULT_SIGNATURE_CACHE_SIZE = 5000;
+	// keyed by the digest of hash, signature and public key
+	private static volatile ClockCache<Hash, Boolean> validSignatures = new ClockCache<Hash, Boolean> (DEFAULT_SIGNATURE_CACHE_SIZE);
+
+	public static final int DEFAULT_PUBLIC_KEY_CACHE_SIZE = 5000;
+	// decoded public keys, decoding a compressed key needs a modular square root
+	private static volatile ClockCache<ByteBuffer, ECPublicKeyParameters> publicKeys = new ClockCache<ByteBuffer, ECPublicKeyParameters> (
+			DEFAULT_PUBLIC_KEY_CACHE_SIZE);
+
+	private static final ThreadLocal<Hash.Hasher> cacheKeyHasher = new ThreadLocal<Hash.Hasher> ()
+	{
+		@Override
+		protected Hash.Hasher initialValue ()
+		{
+			return new Hash.Hasher ();
+		}
+	};
+
+	// multiples j * 16^w * G of the generator for each 4 bit window w of a private key, built on first use
+	private static class GeneratorTable
+	{
+		private static final int WINDOWS = 64;
+		private static final ECPoint[][] table = new ECPoint[WINDOWS][15];
+		static
+		{
+			ECPoint base = curve.getG ();
+			for ( int w = 0; w < WINDOWS; ++w )
+			{
+				table[w][0] = base;
+				for ( int j = 1; j < 15; ++j )
+				{
+					table[w][j] = table[w][j - 1].add (base);
+				}
+				base = table[w][14].add (base);
+			}
+		}
+	}
 
 	private BigInteger priv;
 	private byte[] pub;
@@ -59,16 +90,13 @@ public class ECKeyPair
 
 	public static ECKeyPair createNew ()
 	{
-		ECKeyPairGenerator generator = new ECKeyPairGenerator ();
-		ECKeyGenerationParameters keygenParams = new ECKeyGenerationParameters (domain, secureRandom);
-		generator.init (keygenParams);
-		AsymmetricCipherKeyPair keypair = generator.generateKeyPair ();
-		ECPrivateKeyParameters privParams = (ECPrivateKeyParameters) keypair.getPrivate ();
-		ECPublicKeyParameters pubParams = (ECPublicKeyParameters) keypair.getPublic ();
-		ECKeyPair k = new ECKeyPair ();
-		k.priv = privParams.getD ();
-		k.pub = pubParams.getQ ().getEncoded ();
-		return k;
+		BigInteger n = curve.getN ();
+		BigInteger priv;
+		do
+		{
+			priv = new BigInteger (n.bitLength (), secureRandom);
+		} while ( priv.signum () == 0 || priv.compareTo (n) >= 0 );
+		return new ECKeyPair (priv);
 	}
 
 	public byte[] getPublic ()
@@ -87,10 +115,35 @@ public class ECKeyPair
 		return Hash.keyHash (pub);
 	}
 
+	/**
+	 * priv * G, adding one precomputed multiple of the generator for each 4 bit window of the key instead of doubling
+	 */
+	static ECPoint multiplyG (BigInteger priv)
+	{
+		if ( priv.signum () <= 0 || priv.compareTo (curve.getN ()) >= 0 )
+		{
+			return curve.getG ().multiply (priv);
+		}
+		ECPoint r = curve.getCurve ().getInfinity ();
+		for ( int w = 0; w < GeneratorTable.WINDOWS; ++w )
+		{
+			int nibble = 0;
+			for ( int b = 3; b >= 0; --b )
+			{
+				nibble = (nibble << 1) | (priv.testBit (w * 4 + b) ? 1 : 0);
+			}
+			if ( nibble != 0 )
+			{
+				r = r.add (GeneratorTable.table[w][nibble - 1]);
+			}
+		}
+		return r;
+	}
+
 	public ECKeyPair (BigInteger priv)
 	{
 		this.priv = priv;
-		pub = curve.getG ().multiply (priv).getEncoded ();
+		pub = multiplyG (priv).getEncoded ();
 	}
 
 	public ECKeyPair (byte[] store) throws ValidationException
@@ -105,7 +158,7 @@ public class ECKeyPair
 			}
 			priv = new BigInteger (1, ((DEROctetString) der.getObjectAt (1).toASN1Primitive ()).getOctets ());
 			s.close ();
-			pub = curve.getG ().multiply (priv).getEncoded ();
+			pub = multiplyG (priv).getEncoded ();
 		}
 		catch ( IOException e )
 		{
@@ -164,22 +217,69 @@ public class ECKeyPair
 		return s.toByteArray ();
 	}
 
+	/**
+	 * resize the cache of valid signatures, its content is dropped
+	 */
+	public static void setSignatureCacheSize (int size)
+	{
+		validSignatures = new ClockCache<Hash, Boolean> (size);
+	}
+
+	/**
+	 * cache of valid signatures, for its metrics
+	 */
+	public static ClockCache<Hash, Boolean> getSignatureCache ()
+	{
+		return validSignatures;
+	}
+
+	/**
+	 * resize the cache of decoded public keys, its content is dropped
+	 */
+	public static void setPublicKeyCacheSize (int size)
+	{
+		publicKeys = new ClockCache<ByteBuffer, ECPublicKeyParameters> (size);
+	}
+
+	/**
+	 * cache of decoded public keys, for its metrics
+	 */
+	public static ClockCache<ByteBuffer, ECPublicKeyParameters> getPublicKeyCache ()
+	{
+		return publicKeys;
+	}
+
+	private static ECPublicKeyParameters decodePublicKey (byte[] pub)
+	{
+		ClockCache<ByteBuffer, ECPublicKeyParameters> cache = publicKeys;
+		ECPublicKeyParameters params = cache.get (ByteBuffer.wrap (pub));
+		if ( params == null )
+		{
+			params = new ECPublicKeyParameters (curve.getCurve ().decodePoint (pub), domain);
+			cache.put (ByteBuffer.wrap (pub.clone ()), params);
+		}
+		return params;
+	}
+
+	private static byte[] length (byte[] b)
+	{
+		return new byte[] { (byte) (b.length >>> 24), (byte) (b.length >>> 16), (byte) (b.length >>> 8), (byte) b.length };
+	}
+
 	public static boolean verify (byte[] hash, byte[] signature, byte[] pub)
 	{
-		String cacheKey = ByteUtils.toHex (hash) + ":" + ByteUtils.toHex (signature) + ":" + ByteUtils.toHex (pub);
-		synchronized ( validSignatures )
+		Hash cacheKey =
+				cacheKeyHasher.get ().reset ().update (length (hash)).update (hash).update (length (signature)).update (signature).update (pub).hash ();
+		ClockCache<Hash, Boolean> cache = validSignatures;
+		if ( cache.get (cacheKey) != null )
 		{
-			if ( validSignatures.contains (cacheKey) )
-			{
-				validSignatures.remove (cacheKey);
-				return true;
-			}
+			return true;
 		}
 		ASN1InputStream asn1 = new ASN1InputStream (signature);
 		try
 		{
 			ECDSASigner signer = new ECDSASigner ();
-			signer.init (false, new ECPublicKeyParameters (curve.getCurve ().decodePoint (pub), domain));
+			signer.init (false, decodePublicKey (pub));
 
 			DLSequence seq = (DLSequence) asn1.readObject ();
 			BigInteger r = ((DERInteger) seq.getObjectAt (0)).getPositiveValue ();
@@ -187,16 +287,7 @@ public class ECKeyPair
 			asn1.close ();
 			if ( signer.verifySignature (hash, r, s) )
 			{
-				synchronized ( validSignatures )
-				{
-					if ( validSignatures.size () >= signatureCacheLimit )
-					{
-						Iterator<String> i = validSignatures.iterator ();
-						i.next ();
-						i.remove ();
-					}
-					validSignatures.add (cacheKey);
-				}
+				cache.put (cacheKey, Boolean.TRUE);
 				return true;
 			}
 		}
@@ -15,105 +15,439 @@
  */
 package com.bitsofproof.supernode.api;
 
+import java.io.Serializable;
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.DigestException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
 import org.bouncycastle.crypto.digests.RIPEMD160Digest;
 
-public class Hash
+public class Hash implements Serializable, Comparable<Hash>
 {
-	private final byte[] bytes;
-	public static final Hash ZERO_HASH = new Hash (new byte[32]);
-	public static final String ZERO_HASH_STRING = new Hash (new byte[32]).toString ();
+	private static final long serialVersionUID = 4474470396227637547L;
+
+	private static final char[] hexDigits = "0123456789abcdef".toCharArray ();
+
+	public static final Hash ZERO_HASH = new Hash (0L, 0L, 0L, 0L);
+	public static final String ZERO_HASH_STRING = ZERO_HASH.toString ();
+
+	// the 32 bytes in wire order, read as four little endian words
+	private final long w0;
+	private final long w1;
+	private final long w2;
+	private final long w3;
+	private final int hashCode;
+	private transient String hex;
+
+	private Hash (long w0, long w1, long w2, long w3)
+	{
+		this.w0 = w0;
+		this.w1 = w1;
+		this.w2 = w2;
+		this.w3 = w3;
+		// content is a digest, so any part of it is well distributed
+		this.hashCode = (int) (w0 ^ (w0 >>> 32));
+	}
 
 	public Hash (byte[] hash)
+	{
+		this (readWord (checkLength (hash), 0), readWord (hash, 8), readWord (hash, 16), readWord (hash, 24));
+	}
+
+	public Hash (String hex)
+	{
+		this (parseWord (checkLength (hex), 48), parseWord (hex, 32), parseWord (hex, 16), parseWord (hex, 0));
+	}
+
+	/**
+	 * Hash from 32 bytes in wire order at offset
+	 */
+	public static Hash fromBytes (byte[] b, int offset)
+	{
+		return new Hash (readWord (b, offset), readWord (b, offset + 8), readWord (b, offset + 16), readWord (b, offset + 24));
+	}
+
+	/**
+	 * Hash from 32 bytes in wire order at offset of the buffer, the position of the buffer is not changed.
+	 */
+	public static Hash fromBuffer (ByteBuffer b, int offset)
+	{
+		if ( b.order () == ByteOrder.LITTLE_ENDIAN )
+		{
+			return new Hash (b.getLong (offset), b.getLong (offset + 8), b.getLong (offset + 16), b.getLong (offset + 24));
+		}
+		return new Hash (Long.reverseBytes (b.getLong (offset)), Long.reverseBytes (b.getLong (offset + 8)), Long.reverseBytes (b
+				.getLong (offset + 16)), Long.reverseBytes (b.getLong (offset + 24)));
+	}
+
+	public static Hash fromWire (WireFormat.Reader reader)
+	{
+		return reader.readHash ();
+	}
+
+	public void toWire (WireFormat.Writer writer)
+	{
+		writer.writeUint64 (w0);
+		writer.writeUint64 (w1);
+		writer.writeUint64 (w2);
+		writer.writeUint64 (w3);
+	}
+
+	private static byte[] checkLength (byte[] hash)
 	{
 		if ( hash.length != 32 )
 		{
 			throw new IllegalArgumentException ("Digest length must be 32 bytes for Hash");
 		}
-		this.bytes = new byte[32];
-		System.arraycopy (hash, 0, this.bytes, 0, 32);
+		return hash;
 	}
 
-	public Hash (String hex)
+	private static String checkLength (String hex)
 	{
 		if ( hex.length () != 64 )
 		{
 			throw new IllegalArgumentException ("Digest length must be 64 hex characters for Hash");
 		}
+		return hex;
+	}
 
-		this.bytes = ByteUtils.reverse (ByteUtils.fromHex (hex));
+	private static long readWord (byte[] b, int offset)
+	{
+		long w = 0;
+		for ( int i = 7; i >= 0; --i )
+		{
+			w = (w << 8) | (b[offset + i] & 0xffL);
+		}
+		return w;
 	}
 
-	public static byte[] sha256 (byte[] data)
+	private static void writeWord (long w, byte[] b, int offset)
 	{
-		try
+		for ( int i = 0; i < 8; ++i )
 		{
-			MessageDigest a = MessageDigest.getInstance ("SHA-256");
-			return a.digest (data);
+			b[offset + i] = (byte) (w >>> (i * 8));
 		}
-		catch ( NoSuchAlgorithmException e )
+	}
+
+	// the hex form is the reverse of the wire order, so a word is its 16 digits most significant first
+	private static long parseWord (String hex, int offset)
+	{
+		long w = 0;
+		for ( int i = offset; i < offset + 16; ++i )
 		{
-			throw new RuntimeException (e);
+			int d = Character.digit (hex.charAt (i), 16);
+			if ( d < 0 )
+			{
+				throw new IllegalArgumentException ("Invalid hex character in Hash " + hex);
+			}
+			w = (w << 4) | d;
 		}
+		return w;
 	}
 
-	public static byte[] keyHash (byte[] key)
+	private static void formatWord (long w, char[] hex, int offset)
+	{
+		for ( int i = offset + 15; i >= offset; --i )
+		{
+			hex[i] = hexDigits[(int) (w & 0xf)];
+			w >>>= 4;
+		}
+	}
+
+	private static final ThreadLocal<MessageDigest> sha256Digest = new ThreadLocal<MessageDigest> ()
+	{
+		@Override
+		protected MessageDigest initialValue ()
+		{
+			return newSHA256 ();
+		}
+	};
+
+	private static final ThreadLocal<RIPEMD160Digest> ripemd160Digest = new ThreadLocal<RIPEMD160Digest> ()
+	{
+		@Override
+		protected RIPEMD160Digest initialValue ()
+		{
+			return new RIPEMD160Digest ();
+		}
+	};
+
+	private static MessageDigest newSHA256 ()
 	{
-		byte[] ph = new byte[20];
 		try
 		{
-			byte[] sha256 = MessageDigest.getInstance ("SHA-256").digest (key);
-			RIPEMD160Digest digest = new RIPEMD160Digest ();
-			digest.update (sha256, 0, sha256.length);
-			digest.doFinal (ph, 0);
+			return MessageDigest.getInstance ("SHA-256");
 		}
 		catch ( NoSuchAlgorithmException e )
 		{
 			throw new RuntimeException (e);
 		}
+	}
+
+	// the thread's digest, only to be used within a single call that does not call out
+	private static MessageDigest threadSHA256 ()
+	{
+		MessageDigest a = sha256Digest.get ();
+		a.reset ();
+		return a;
+	}
+
+	public static byte[] sha256 (byte[] data)
+	{
+		return threadSHA256 ().digest (data);
+	}
+
+	public static byte[] keyHash (byte[] key)
+	{
+		return keyHash (key, 0, key.length);
+	}
+
+	public static byte[] keyHash (byte[] key, int offset, int length)
+	{
+		byte[] ph = new byte[20];
+		MessageDigest a = threadSHA256 ();
+		a.update (key, offset, length);
+		byte[] sha256 = a.digest ();
+		RIPEMD160Digest digest = ripemd160Digest.get ();
+		digest.update (sha256, 0, sha256.length);
+		digest.doFinal (ph, 0);
 		return ph;
 	}
 
 	public static byte[] hash (byte[] data, int offset, int len)
+	{
+		MessageDigest a = threadSHA256 ();
+		a.update (data, offset, len);
+		return a.digest (a.digest ());
+	}
+
+	/**
+	 * double SHA256 of the data range written into out at outOffset, without intermediate arrays
+	 */
+	public static void hash (byte[] data, int offset, int len, byte[] out, int outOffset)
+	{
+		MessageDigest a = threadSHA256 ();
+		a.update (data, offset, len);
+		doubleDigest (a, out, outOffset);
+	}
+
+	private static void doubleDigest (MessageDigest a, byte[] out, int outOffset)
 	{
 		try
 		{
-			MessageDigest a = MessageDigest.getInstance ("SHA-256");
-			a.update (data, offset, len);
-			return a.digest (a.digest ());
+			a.digest (out, outOffset, 32);
+			a.update (out, outOffset, 32);
+			a.digest (out, outOffset, 32);
 		}
-		catch ( NoSuchAlgorithmException e )
+		catch ( DigestException e )
 		{
-			throw new RuntimeException (e);
+			throw new IllegalArgumentException (e);
 		}
 	}
 
+	public static byte[] hash (ByteBuffer data)
+	{
+		MessageDigest a = threadSHA256 ();
+		a.update (data);
+		return a.digest (a.digest ());
+	}
+
 	public static byte[] hash (byte[] data)
 	{
 		return hash (data, 0, data.length);
 	}
 
+	/**
+	 * Incremental double SHA256. An instance is not thread safe, but can be reused after each hash.
+	 */
+	public static class Hasher
+	{
+		private final MessageDigest digest;
+		private final byte[] scratch = new byte[32];
+
+		public Hasher ()
+		{
+			digest = newSHA256 ();
+		}
+
+		private Hasher (MessageDigest digest)
+		{
+			this.digest = digest;
+		}
+
+		/**
+		 * independent hasher continuing from the data added to this one so far, the midstate of a common prefix
+		 */
+		public Hasher copy ()
+		{
+			try
+			{
+				return new Hasher ((MessageDigest) digest.clone ());
+			}
+			catch ( CloneNotSupportedException e )
+			{
+				throw new RuntimeException (e);
+			}
+		}
+
+		public Hasher reset ()
+		{
+			digest.reset ();
+			return this;
+		}
+
+		public Hasher update (byte[] data)
+		{
+			digest.update (data);
+			return this;
+		}
+
+		public Hasher update (byte[] data, int offset, int length)
+		{
+			digest.update (data, offset, length);
+			return this;
+		}
+
+		public Hasher update (ByteBuffer data)
+		{
+			digest.update (data);
+			return this;
+		}
+
+		/**
+		 * add the hash in wire order
+		 */
+		public Hasher update (Hash h)
+		{
+			h.copyTo (scratch, 0);
+			digest.update (scratch);
+			return this;
+		}
+
+		/**
+		 * add a range of the reader's input, without moving its cursor
+		 */
+		public Hasher update (WireFormat.Reader reader, int offset, int length)
+		{
+			reader.digest (digest, offset, length);
+			return this;
+		}
+
+		/**
+		 * double SHA256 of the data added since the last hash or reset
+		 */
+		public Hash hash ()
+		{
+			doubleDigest (digest, scratch, 0);
+			return fromBytes (scratch, 0);
+		}
+
+		public void hash (byte[] out, int outOffset)
+		{
+			doubleDigest (digest, out, outOffset);
+		}
+
+		/**
+		 * single SHA256 of the data added since the last hash or reset
+		 */
+		public byte[] sha256 ()
+		{
+			return digest.digest ();
+		}
+	}
+
 	public byte[] toByteArray ()
 	{
-		byte[] copy = new byte[bytes.length];
-		System.arraycopy (bytes, 0, copy, 0, bytes.length);
-		return copy;
+		byte[] b = new byte[32];
+		copyTo (b, 0);
+		return b;
+	}
+
+	/**
+	 * write the 32 bytes in wire order into target at offset
+	 */
+	public void copyTo (byte[] target, int offset)
+	{
+		writeWord (w0, target, offset);
+		writeWord (w1, target, offset + 8);
+		writeWord (w2, target, offset + 16);
+		writeWord (w3, target, offset + 24);
 	}
 
 	public BigInteger toBigInteger ()
 	{
-		byte[] hashAsNumber = new byte[32];
-		System.arraycopy (bytes, 0, hashAsNumber, 0, 32);
+		byte[] hashAsNumber = toByteArray ();
 		ByteUtils.reverse (hashAsNumber);
 		return new BigInteger (1, hashAsNumber);
 	}
 
+	@Override
+	public int hashCode ()
+	{
+		return hashCode;
+	}
+
+	@Override
+	public boolean equals (Object obj)
+	{
+		if ( this == obj )
+		{
+			return true;
+		}
+		if ( !(obj instanceof Hash) )
+		{
+			return false;
+		}
+		Hash o = (Hash) obj;
+		// no early exit, timing does not depend on where the hashes differ
+		return ((w0 ^ o.w0) | (w1 ^ o.w1) | (w2 ^ o.w2) | (w3 ^ o.w3)) == 0;
+	}
+
+	/**
+	 * order of the hashes as numbers, as in toBigInteger ()
+	 */
+	@Override
+	public int compareTo (Hash o)
+	{
+		int c = compareUnsigned (w3, o.w3);
+		if ( c == 0 )
+		{
+			c = compareUnsigned (w2, o.w2);
+			if ( c == 0 )
+			{
+				c = compareUnsigned (w1, o.w1);
+				if ( c == 0 )
+				{
+					c = compareUnsigned (w0, o.w0);
+				}
+			}
+		}
+		return c;
+	}
+
+	private static int compareUnsigned (long a, long b)
+	{
+		a += Long.MIN_VALUE;
+		b += Long.MIN_VALUE;
+		return a < b ? -1 : (a == b ? 0 : 1);
+	}
+
 	@Override
 	public String toString ()
 	{
-		return ByteUtils.toHex (ByteUtils.reverse (toByteArray ()));
+		String s = hex;
+		if ( s == null )
+		{
+			char[] c = new char[64];
+			formatWord (w3, c, 0);
+			formatWord (w2, c, 16);
+			formatWord (w1, c, 32);
+			formatWord (w0, c, 48);
+			hex = s = new String (c);
+		}
+		return s;
 	}
 }
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2012 Tamas Blummer tamas@bitsofproof.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitsofproof.supernode.api;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Transactions of a lazily decoded block. Boundaries of transactions in the wire format are known from the start, a
+ * transaction is decoded when it is first accessed. Transactions not accessed are written and hashed from their wire
+ * format. Adding or removing transactions decodes all of them first, the list then behaves as an ArrayList.
+ */
+class LazyTransactionList extends AbstractList<Transaction> implements RandomAccess, Serializable
+{
+	private static final long serialVersionUID = -2306393826213314125L;
+
+	private final ByteBuffer wire;
+	// null where not yet decoded
+	private final List<Transaction> decoded;
+	private boolean complete;
+	private final int[] offsets;
+	// hashes of transactions not decoded, computed on first request
+	private final Hash[] hashes;
+	private Hash blockHash;
+
+	/**
+	 * transactions with known boundaries, transaction i is at offsets[i] up to offsets[i + 1] of the buffer
+	 */
+	LazyTransactionList (ByteBuffer wire, int[] offsets)
+	{
+		this.wire = wire;
+		this.decoded = new ArrayList<Transaction> (Collections.<Transaction> nCopies (offsets.length - 1, null));
+		this.offsets = offsets;
+		this.hashes = new Hash[offsets.length - 1];
+	}
+
+	private ByteBuffer range (int index)
+	{
+		ByteBuffer b = wire.duplicate ();
+		b.limit (offsets[index + 1]);
+		b.position (offsets[index]);
+		return b;
+	}
+
+	@Override
+	public Transaction get (int index)
+	{
+		Transaction t = decoded.get (index);
+		if ( t == null )
+		{
+			t = Transaction.fromWire (new WireFormat.Reader (range (index)));
+			t.setBinaryBlockHash (blockHash);
+			decoded.set (index, t);
+		}
+		return t;
+	}
+
+	@Override
+	public Transaction set (int index, Transaction transaction)
+	{
+		Transaction previous = get (index);
+		decoded.set (index, transaction);
+		return previous;
+	}
+
+	@Override
+	public void add (int index, Transaction transaction)
+	{
+		decodeAll ();
+		decoded.add (index, transaction);
+		++modCount;
+	}
+
+	@Override
+	public Transaction remove (int index)
+	{
+		decodeAll ();
+		++modCount;
+		return decoded.remove (index);
+	}
+
+	// positions change with structural modification, so the wire format can no longer be used
+	private void decodeAll ()
+	{
+		if ( !complete )
+		{
+			for ( int i = 0; i < decoded.size (); ++i )
+			{
+				get (i);
+			}
+			complete = true;
+		}
+	}
+
+	@Override
+	public int size ()
+	{
+		return decoded.size ();
+	}
+
+	/**
+	 * block hash of decoded transactions and those decoded later
+	 */
+	public void setBlockHash (Hash blockHash)
+	{
+		this.blockHash = blockHash;
+		for ( Transaction t : decoded )
+		{
+			if ( t != null )
+			{
+				t.setBinaryBlockHash (blockHash);
+			}
+		}
+	}
+
+	public boolean isDecoded (int index)
+	{
+		return decoded.get (index) != null;
+	}
+
+	/**
+	 * hash of the transaction at index, without decoding it
+	 */
+	public Hash getHash (int index)
+	{
+		Transaction t = decoded.get (index);
+		if ( t != null )
+		{
+			return t.getBinaryHash ();
+		}
+		// entries without a decoded transaction are never moved, so their original index is valid
+		if ( hashes[index] == null )
+		{
+			hashes[index] = new Hash (Hash.hash (range (index)));
+		}
+		return hashes[index];
+	}
+
+	public int getWireSize ()
+	{
+		int size = 0;
+		for ( int i = 0; i < decoded.size (); ++i )
+		{
+			Transaction t = decoded.get (i);
+			size += t != null ? t.getWireSize () : offsets[i + 1] - offsets[i];
+		}
+		return size;
+	}
+
+	public void toWire (WireFormat.Writer writer)
+	{
+		for ( int i = 0; i < decoded.size (); ++i )
+		{
+			Transaction t = decoded.get (i);
+			if ( t != null )
+			{
+				t.toWire (writer);
+			}
+			else
+			{
+				writer.writeBytes (range (i));
+			}
+		}
+	}
+
+	// serialized as a plain list of decoded transactions
+	private Object writeReplace ()
+	{
+		return new ArrayList<Transaction> (this);
+	}
+}
@@ -0,0 +1,311 @@
+/*
+ * Copyright 2012 Tamas Blummer tamas@bitsofproof.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitsofproof.supernode.api;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Merkle tree of a block's transactions. Every level is kept as a flat buffer of 32 byte nodes in wire order, level 0 are
+ * the leaves, the last level is the root. Once computed the tree can be updated incrementally, replacing a leaf or adding
+ * one costs only the hashes on its path to the root.
+ */
+public class MerkleTree
+{
+	// levels with at least this many nodes are hashed in parallel
+	public static final int PARALLEL_THRESHOLD = 2048;
+	// parent nodes computed by a single task
+	private static final int CHUNK = 512;
+
+	private byte[][] levels;
+	private int[] sizes;
+	private boolean computed;
+
+	/**
+	 * Tree over the first n 32 byte leaves of the buffer. The buffer is owned by the tree after this call.
+	 */
+	public MerkleTree (byte[] leaves, int n)
+	{
+		levels = new byte[][] { leaves };
+		sizes = new int[] { n };
+	}
+
+	public MerkleTree (List<Hash> leaves)
+	{
+		this (new byte[leaves.size () * 32], leaves.size ());
+		int i = 0;
+		for ( Hash h : leaves )
+		{
+			h.copyTo (levels[0], 32 * i++);
+		}
+	}
+
+	public static MerkleTree fromTransactions (List<Transaction> transactions)
+	{
+		byte[] leaves = new byte[transactions.size () * 32];
+		if ( transactions instanceof LazyTransactionList )
+		{
+			LazyTransactionList lazy = (LazyTransactionList) transactions;
+			for ( int i = 0; i < lazy.size (); ++i )
+			{
+				lazy.getHash (i).copyTo (leaves, 32 * i);
+			}
+		}
+		else
+		{
+			int i = 0;
+			for ( Transaction t : transactions )
+			{
+				t.getBinaryHash ().copyTo (leaves, 32 * i++);
+			}
+		}
+		return new MerkleTree (leaves, transactions.size ());
+	}
+
+	/**
+	 * compute all levels above the leaves, large levels in parallel on a shared pool
+	 */
+	public void compute ()
+	{
+		compute (sizes[0] >= PARALLEL_THRESHOLD ? Parallel.getSharedExecutor () : null);
+	}
+
+	/**
+	 * compute all levels above the leaves, levels of at least PARALLEL_THRESHOLD nodes on the executor if not null
+	 */
+	public void compute (ExecutorService executor)
+	{
+		int height = 1;
+		for ( int n = sizes[0]; n > 1; n = (n + 1) / 2 )
+		{
+			++height;
+		}
+		byte[][] l = new byte[height][];
+		int[] s = new int[height];
+		l[0] = levels[0];
+		s[0] = sizes[0];
+		for ( int i = 1; i < height; ++i )
+		{
+			s[i] = (s[i - 1] + 1) / 2;
+			l[i] = new byte[s[i] * 32];
+			if ( executor != null && s[i - 1] >= PARALLEL_THRESHOLD )
+			{
+				hashLevelParallel (l[i - 1], s[i - 1], l[i], executor);
+			}
+			else
+			{
+				hashLevel (l[i - 1], s[i - 1], l[i], 0, s[i]);
+			}
+		}
+		levels = l;
+		sizes = s;
+		computed = true;
+	}
+
+	private void ensureComputed ()
+	{
+		if ( !computed )
+		{
+			compute ();
+		}
+	}
+
+	private void ensureCapacity (int level, int n)
+	{
+		if ( levels[level].length < n * 32 )
+		{
+			levels[level] = Arrays.copyOf (levels[level], Math.max (levels[level].length * 2, n * 32));
+		}
+	}
+
+	/**
+	 * replace a leaf and recompute its path to the root
+	 */
+	public void setLeaf (int index, Hash leaf)
+	{
+		ensureComputed ();
+		if ( index < 0 || index >= sizes[0] )
+		{
+			throw new IndexOutOfBoundsException ("No leaf " + index + " in tree of " + sizes[0]);
+		}
+		leaf.copyTo (levels[0], index * 32);
+		for ( int level = 0; level < levels.length - 1; ++level )
+		{
+			index >>>= 1;
+			hashLevel (levels[level], sizes[level], levels[level + 1], index, index + 1);
+		}
+	}
+
+	/**
+	 * append a leaf and recompute the right spine of the tree
+	 */
+	public void addLeaf (Hash leaf)
+	{
+		ensureComputed ();
+		int index = sizes[0];
+		ensureCapacity (0, index + 1);
+		leaf.copyTo (levels[0], index * 32);
+		++sizes[0];
+		for ( int level = 0; sizes[level] > 1; ++level )
+		{
+			if ( level + 1 == levels.length )
+			{
+				levels = Arrays.copyOf (levels, levels.length + 1);
+				levels[level + 1] = new byte[32];
+				sizes = Arrays.copyOf (sizes, sizes.length + 1);
+			}
+			sizes[level + 1] = (sizes[level] + 1) / 2;
+			ensureCapacity (level + 1, sizes[level + 1]);
+			index >>>= 1;
+			hashLevel (levels[level], sizes[level], levels[level + 1], index, index + 1);
+		}
+	}
+
+	// parents from up to to (exclusive) of a level of size nodes, the last node is paired with itself if odd
+	static void hashLevel (byte[] level, int size, byte[] parents, int from, int to)
+	{
+		for ( int p = from; p < to; ++p )
+		{
+			int left = 2 * p;
+			if ( left + 1 < size )
+			{
+				Hash.hash (level, left * 32, 64, parents, p * 32);
+			}
+			else
+			{
+				byte[] pair = new byte[64];
+				System.arraycopy (level, left * 32, pair, 0, 32);
+				System.arraycopy (level, left * 32, pair, 32, 32);
+				Hash.hash (pair, 0, 64, parents, p * 32);
+			}
+		}
+	}
+
+	private static void hashLevelParallel (final byte[] level, final int size, final byte[] parents, ExecutorService executor)
+	{
+		Parallel.run ((size + 1) / 2, CHUNK, executor, new Parallel.Range<RuntimeException> ()
+		{
+			@Override
+			public void run (int from, int to)
+			{
+				hashLevel (level, size, parents, from, to);
+			}
+		});
+	}
+
+	/**
+	 * @return root of the tree, null if there are no leaves
+	 */
+	public Hash getRoot ()
+	{
+		ensureComputed ();
+		int top = levels.length - 1;
+		if ( sizes[top] == 0 )
+		{
+			return null;
+		}
+		return Hash.fromBytes (levels[top], 0);
+	}
+
+	/**
+	 * @return number of levels computed, the leaves included
+	 */
+	public int getHeight ()
+	{
+		ensureComputed ();
+		return levels.length;
+	}
+
+	public int getLevelSize (int level)
+	{
+		ensureComputed ();
+		return sizes[level];
+	}
+
+	/**
+	 * @return flat buffer of the level's nodes in wire order, owned by the tree and not to be modified. Only the first
+	 *         getLevelSize (level) nodes are valid.
+	 */
+	public byte[] getLevel (int level)
+	{
+		ensureComputed ();
+		return levels[level];
+	}
+
+	public Hash getNode (int level, int index)
+	{
+		ensureComputed ();
+		if ( index >= sizes[level] )
+		{
+			throw new IndexOutOfBoundsException ("Level " + level + " has " + sizes[level] + " nodes");
+		}
+		return Hash.fromBytes (levels[level], index * 32);
+	}
+
+	/**
+	 * Merkle branch (SPV proof) of a leaf, the siblings on its path to the root bottom up.
+	 */
+	public List<Hash> getBranch (int index)
+	{
+		ensureComputed ();
+		if ( index < 0 || index >= sizes[0] )
+		{
+			throw new IndexOutOfBoundsException ("No leaf " + index + " in tree of " + sizes[0]);
+		}
+		List<Hash> branch = new ArrayList<Hash> (levels.length - 1);
+		for ( int level = 0; level < levels.length - 1; ++level )
+		{
+			int sibling = Math.min (index ^ 1, sizes[level] - 1);
+			branch.add (Hash.fromBytes (levels[level], sibling * 32));
+			index >>>= 1;
+		}
+		return branch;
+	}
+
+	/**
+	 * root of the tree a leaf at index with the given branch belongs to
+	 */
+	public static Hash rootOfBranch (Hash leaf, int index, List<Hash> branch)
+	{
+		byte[] pair = new byte[64];
+		leaf.copyTo (pair, 0);
+		for ( Hash sibling : branch )
+		{
+			if ( (index & 1) == 0 )
+			{
+				sibling.copyTo (pair, 32);
+			}
+			else
+			{
+				System.arraycopy (pair, 0, pair, 32, 32);
+				sibling.copyTo (pair, 0);
+			}
+			Hash.hash (pair, 0, 64, pair, 0);
+			index >>>= 1;
+		}
+		return Hash.fromBytes (pair, 0);
+	}
+
+	/**
+	 * check that the leaf at index is included in the tree with root
+	 */
+	public static boolean verifyBranch (Hash leaf, int index, List<Hash> branch, Hash root)
+	{
+		return root != null && root.equals (rootOfBranch (leaf, index, branch));
+	}
+}
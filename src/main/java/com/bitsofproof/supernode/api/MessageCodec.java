@@ -0,0 +1,241 @@
+/*
+ * Copyright 2012 Tamas Blummer tamas@bitsofproof.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitsofproof.supernode.api;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.ObjectMessage;
+import javax.jms.Session;
+
+/**
+ * Encoding of transactions, blocks and trunk updates into JMS messages. The serialized format sends ObjectMessages as
+ * older clients do, the wire format sends BytesMessages with the native wire format of the content after a type byte.
+ * <p>
+ * Older clients expect an ObjectMessage on every topic they consume, so wire format messages never travel on those
+ * topics: each topic has a wire format counterpart named by {@link #topic(String, Format)}. A client chooses its format
+ * by the topics it uses, the server has to consume and publish on the topics of both formats to serve old and new
+ * clients alike. Decoding accepts both formats.
+ * <p>
+ * Wire format bodies: a transaction is preceded by a flag byte, 1 if the hash of the block including it follows. A
+ * block is sent as on the wire. A trunk update is the count of removed blocks, those blocks, then the count and the
+ * blocks added.
+ */
+public class MessageCodec
+{
+	public static enum Format
+	{
+		SERIALIZED, WIRE
+	}
+
+	// string property of wire format messages naming their format version
+	public static final String FORMAT_PROPERTY = "bopFormat";
+	public static final String WIRE_FORMAT_VERSION = "wire1";
+
+	/**
+	 * @return name of the topic carrying the messages of the topic in the given format
+	 */
+	public static String topic (String name, Format format)
+	{
+		if ( format == Format.WIRE )
+		{
+			return name + "." + WIRE_FORMAT_VERSION;
+		}
+		return name;
+	}
+
+	private static final int TRANSACTION = 1;
+	private static final int BLOCK = 2;
+	private static final int TRUNK_UPDATE = 3;
+
+	public static Message encode (Session session, Transaction transaction, Format format) throws JMSException
+	{
+		if ( format == Format.WIRE )
+		{
+			return bytesMessage (session, toBytes (transaction));
+		}
+		return session.createObjectMessage (transaction);
+	}
+
+	public static Message encode (Session session, Block block, Format format) throws JMSException
+	{
+		if ( format == Format.WIRE )
+		{
+			return bytesMessage (session, toBytes (block));
+		}
+		return session.createObjectMessage (block);
+	}
+
+	public static Message encode (Session session, TrunkUpdateMessage update, Format format) throws JMSException
+	{
+		if ( format == Format.WIRE )
+		{
+			return bytesMessage (session, toBytes (update));
+		}
+		return session.createObjectMessage (update);
+	}
+
+	static Message bytesMessage (Session session, byte[] body) throws JMSException
+	{
+		BytesMessage m = session.createBytesMessage ();
+		m.setStringProperty (FORMAT_PROPERTY, WIRE_FORMAT_VERSION);
+		m.writeBytes (body);
+		return m;
+	}
+
+	/**
+	 * @return the Transaction, Block or TrunkUpdateMessage carried by a message of either format
+	 * @throws JMSException
+	 *             for a bytes message not of WIRE_FORMAT_VERSION or a malformed one
+	 */
+	public static Serializable decode (Message message) throws JMSException
+	{
+		if ( message instanceof ObjectMessage )
+		{
+			return ((ObjectMessage) message).getObject ();
+		}
+		if ( message instanceof BytesMessage )
+		{
+			BytesMessage m = (BytesMessage) message;
+			String version = m.getStringProperty (FORMAT_PROPERTY);
+			if ( !WIRE_FORMAT_VERSION.equals (version) )
+			{
+				throw new JMSException ("Unsupported wire format " + version);
+			}
+			byte[] body = new byte[(int) m.getBodyLength ()];
+			m.readBytes (body);
+			return fromBytes (body);
+		}
+		throw new JMSException ("Unexpected message type " + message.getClass ().getName ());
+	}
+
+	static byte[] toBytes (Transaction transaction)
+	{
+		Hash blockHash = transaction.getBinaryBlockHash ();
+		WireFormat.Writer writer = new WireFormat.Writer (2 + (blockHash != null ? 32 : 0) + transaction.getWireSize ());
+		writer.writeByte (TRANSACTION);
+		writer.writeByte (blockHash != null ? 1 : 0);
+		if ( blockHash != null )
+		{
+			writer.writeHash (blockHash);
+		}
+		transaction.toWire (writer);
+		return writer.toByteArray ();
+	}
+
+	static byte[] toBytes (Block block)
+	{
+		WireFormat.Writer writer = new WireFormat.Writer (1 + block.getWireSize ());
+		writer.writeByte (BLOCK);
+		block.toWire (writer);
+		return writer.toByteArray ();
+	}
+
+	static byte[] toBytes (TrunkUpdateMessage update)
+	{
+		List<Block> removed = update.getRemoved ();
+		List<Block> added = update.getAdded ();
+		int size = 1 + wireSize (removed) + wireSize (added);
+		WireFormat.Writer writer = new WireFormat.Writer (size);
+		writer.writeByte (TRUNK_UPDATE);
+		toWire (removed, writer);
+		toWire (added, writer);
+		return writer.toByteArray ();
+	}
+
+	private static int wireSize (List<Block> blocks)
+	{
+		int size = WireFormat.varIntSize (blocks == null ? 0 : blocks.size ());
+		if ( blocks != null )
+		{
+			for ( Block b : blocks )
+			{
+				size += b.getWireSize ();
+			}
+		}
+		return size;
+	}
+
+	private static void toWire (List<Block> blocks, WireFormat.Writer writer)
+	{
+		writer.writeVarInt (blocks == null ? 0 : blocks.size ());
+		if ( blocks != null )
+		{
+			for ( Block b : blocks )
+			{
+				b.toWire (writer);
+			}
+		}
+	}
+
+	static Serializable fromBytes (byte[] body) throws JMSException
+	{
+		try
+		{
+			WireFormat.Reader reader = new WireFormat.Reader (body, 0, body.length);
+			Serializable content;
+			switch ( reader.readByte () )
+			{
+				case TRANSACTION:
+				{
+					Hash blockHash = reader.readByte () == 1 ? reader.readHash () : null;
+					Transaction t = Transaction.fromWire (reader);
+					t.setBinaryBlockHash (blockHash);
+					content = t;
+					break;
+				}
+				case BLOCK:
+					content = Block.fromWireLazy (reader);
+					break;
+				case TRUNK_UPDATE:
+				{
+					List<Block> removed = blocksFromWire (reader);
+					List<Block> added = blocksFromWire (reader);
+					content = new TrunkUpdateMessage (added, removed);
+					break;
+				}
+				default:
+					throw new JMSException ("Unknown message content type");
+			}
+			if ( !reader.eof () )
+			{
+				throw new JMSException ("Trailing bytes in message");
+			}
+			return content;
+		}
+		catch ( RuntimeException e )
+		{
+			JMSException je = new JMSException ("Malformed wire format message");
+			je.setLinkedException (e);
+			throw je;
+		}
+	}
+
+	private static List<Block> blocksFromWire (WireFormat.Reader reader)
+	{
+		long n = reader.readVarInt ();
+		List<Block> blocks = new ArrayList<Block> ();
+		for ( long i = 0; i < n; ++i )
+		{
+			blocks.add (Block.fromWireLazy (reader));
+		}
+		return blocks;
+	}
+}
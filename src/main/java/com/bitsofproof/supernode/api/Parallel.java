@@ -0,0 +1,131 @@
+/*
+ * Copyright 2012 Tamas Blummer tamas@bitsofproof.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitsofproof.supernode.api;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Shared pool and chunked execution of index ranges for the parallel paths of the API.
+ */
+final class Parallel
+{
+	/**
+	 * work on the indexes from up to to (exclusive)
+	 */
+	interface Range<E extends Exception>
+	{
+		public void run (int from, int to) throws E;
+	}
+
+	private static ExecutorService sharedExecutor;
+
+	private Parallel ()
+	{
+	}
+
+	/**
+	 * pool of daemon threads, one per processor
+	 */
+	static synchronized ExecutorService getSharedExecutor ()
+	{
+		if ( sharedExecutor == null )
+		{
+			sharedExecutor = Executors.newFixedThreadPool (Runtime.getRuntime ().availableProcessors (), new ThreadFactory ()
+			{
+				@Override
+				public Thread newThread (Runnable r)
+				{
+					Thread t = new Thread (r, "parallel");
+					t.setDaemon (true);
+					return t;
+				}
+			});
+		}
+		return sharedExecutor;
+	}
+
+	/**
+	 * Run the range 0 to n in chunks, the first on the calling thread and the others on the executor, or all on the
+	 * calling thread if the executor is null. Returns once all chunks are done, the exception of a failed chunk is
+	 * rethrown.
+	 */
+	static <E extends Exception> void run (int n, int chunk, ExecutorService executor, final Range<E> range) throws E
+	{
+		if ( executor == null || n <= chunk )
+		{
+			range.run (0, n);
+			return;
+		}
+		List<Future<?>> tasks = new ArrayList<Future<?>> ();
+		for ( int from = chunk; from < n; from += chunk )
+		{
+			final int f = from;
+			final int t = Math.min (from + chunk, n);
+			tasks.add (executor.submit (new Callable<Void> ()
+			{
+				@Override
+				public Void call () throws E
+				{
+					range.run (f, t);
+					return null;
+				}
+			}));
+		}
+		try
+		{
+			range.run (0, chunk);
+			for ( Future<?> task : tasks )
+			{
+				task.get ();
+			}
+		}
+		catch ( InterruptedException e )
+		{
+			Thread.currentThread ().interrupt ();
+			throw new RuntimeException (e);
+		}
+		catch ( ExecutionException e )
+		{
+			Throwable cause = e.getCause ();
+			if ( cause instanceof RuntimeException )
+			{
+				throw (RuntimeException) cause;
+			}
+			if ( cause instanceof Error )
+			{
+				throw (Error) cause;
+			}
+			// a chunk throws only E if not unchecked
+			@SuppressWarnings ("unchecked")
+			E checked = (E) cause;
+			throw checked;
+		}
+		finally
+		{
+			for ( Future<?> task : tasks )
+			{
+				task.cancel (false);
+			}
+		}
+	}
+}
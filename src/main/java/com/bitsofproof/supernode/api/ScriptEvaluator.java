@@ -0,0 +1,741 @@
+/*
+ * Copyright 2012 Tamas Blummer tamas@bitsofproof.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitsofproof.supernode.api;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import org.bouncycastle.crypto.digests.RIPEMD160Digest;
+
+/**
+ * Script interpreter to check locally that an input of a transaction is allowed to spend the output it refers to. The
+ * stack holds the byte arrays of the script, numbers are decoded as needed and never boxed.
+ */
+public class ScriptEvaluator
+{
+	private static final int MAX_STACK = 1000;
+	private static final int MAX_ELEMENT = 520;
+	private static final int MAX_OPS = 201;
+	private static final int MAX_SCRIPT = 10000;
+
+	private static final byte[] FALSE = new byte[0];
+	private static final byte[] TRUE = new byte[] { 1 };
+
+	private static final ThreadLocal<MessageDigest> sha1Digest = new ThreadLocal<MessageDigest> ()
+	{
+		@Override
+		protected MessageDigest initialValue ()
+		{
+			try
+			{
+				return MessageDigest.getInstance ("SHA-1");
+			}
+			catch ( NoSuchAlgorithmException e )
+			{
+				throw new RuntimeException (e);
+			}
+		}
+	};
+
+	private final Transaction transaction;
+	private final int inr;
+	private SignatureHash signatureHash;
+
+	private byte[][] stack = new byte[16][];
+	private int sp;
+	private byte[][] alt = new byte[4][];
+	private int asp;
+
+	// conditions of nested IF, falses is the number of those false
+	private boolean[] conditions = new boolean[4];
+	private int depth;
+	private int falses;
+
+	public ScriptEvaluator (Transaction transaction, int inr)
+	{
+		this.transaction = transaction;
+		this.inr = inr;
+	}
+
+	/**
+	 * evaluator of an input sharing the signature hash calculator with those of the other inputs of the transaction
+	 */
+	public ScriptEvaluator (SignatureHash signatureHash, int inr)
+	{
+		this.transaction = signatureHash.getTransaction ();
+		this.inr = inr;
+		this.signatureHash = signatureHash;
+	}
+
+	/**
+	 * Evaluate the script of the input against the script of the output it spends.
+	 *
+	 * @param sourceScript
+	 *            script of the output spent
+	 * @param bip16
+	 *            evaluate the redeem script of pay to script hash outputs
+	 * @return true if the input is allowed to spend the output
+	 */
+	public boolean evaluate (byte[] sourceScript, boolean bip16)
+	{
+		byte[] script = transaction.getInputs ().get (inr).getScript ();
+		try
+		{
+			sp = 0;
+			if ( !execute (script) )
+			{
+				return false;
+			}
+			byte[][] copy = Arrays.copyOf (stack, sp);
+			if ( !execute (sourceScript) )
+			{
+				return false;
+			}
+			if ( sp == 0 || !isTrue (pop ()) )
+			{
+				return false;
+			}
+			if ( bip16 && ScriptFormat.isPayToScriptHash (sourceScript) )
+			{
+				if ( !ScriptFormat.isPushOnly (script) || copy.length == 0 )
+				{
+					return false;
+				}
+				stack = Arrays.copyOf (copy, Math.max (copy.length, 16));
+				sp = copy.length;
+				if ( !execute (pop ()) )
+				{
+					return false;
+				}
+				return sp > 0 && isTrue (pop ());
+			}
+			return true;
+		}
+		catch ( ValidationException e )
+		{
+			return false;
+		}
+	}
+
+	@SuppressWarnings ("incomplete-switch")
+	private boolean execute (byte[] script) throws ValidationException
+	{
+		if ( script.length > MAX_SCRIPT )
+		{
+			return false;
+		}
+		asp = 0;
+		depth = 0;
+		falses = 0;
+		int ops = 0;
+		int codeSeparator = 0;
+		ScriptFormat.Scanner scanner = new ScriptFormat.Scanner (script);
+		while ( scanner.next () )
+		{
+			int op = scanner.getOpcode ();
+			if ( scanner.getDataLength () > MAX_ELEMENT )
+			{
+				return false;
+			}
+			if ( op > ScriptFormat.Opcode.OP_16.o && ++ops > MAX_OPS )
+			{
+				return false;
+			}
+			if ( isDisabled (op) )
+			{
+				return false;
+			}
+			if ( falses > 0 && (op < ScriptFormat.Opcode.OP_IF.o || op > ScriptFormat.Opcode.OP_ENDIF.o) )
+			{
+				continue;
+			}
+			if ( scanner.isPush () )
+			{
+				push (Arrays.copyOfRange (script, scanner.getDataOffset (), scanner.getDataOffset () + scanner.getDataLength ()));
+				continue;
+			}
+			if ( op >= ScriptFormat.Opcode.OP_1.o && op <= ScriptFormat.Opcode.OP_16.o )
+			{
+				push (toBytes (op - ScriptFormat.Opcode.OP_1.o + 1));
+				continue;
+			}
+			switch ( scanner.getOp () )
+			{
+				case OP_1NEGATE:
+					push (toBytes (-1));
+					break;
+				case OP_NOP:
+				case OP_NOP1:
+				case OP_NOP2:
+				case OP_NOP3:
+				case OP_NOP4:
+				case OP_NOP5:
+				case OP_NOP6:
+				case OP_NOP7:
+				case OP_NOP8:
+				case OP_NOP9:
+				case OP_NOP10:
+					break;
+				case OP_IF:
+				case OP_NOTIF:
+				{
+					boolean condition = false;
+					if ( falses == 0 )
+					{
+						condition = isTrue (pop ());
+						if ( op == ScriptFormat.Opcode.OP_NOTIF.o )
+						{
+							condition = !condition;
+						}
+					}
+					if ( depth == conditions.length )
+					{
+						conditions = Arrays.copyOf (conditions, depth * 2);
+					}
+					conditions[depth++] = condition;
+					if ( !condition )
+					{
+						++falses;
+					}
+					break;
+				}
+				case OP_ELSE:
+					if ( depth == 0 )
+					{
+						return false;
+					}
+					falses += conditions[depth - 1] ? 1 : -1;
+					conditions[depth - 1] = !conditions[depth - 1];
+					break;
+				case OP_ENDIF:
+					if ( depth == 0 )
+					{
+						return false;
+					}
+					if ( !conditions[--depth] )
+					{
+						--falses;
+					}
+					break;
+				case OP_VERIFY:
+					if ( !isTrue (pop ()) )
+					{
+						return false;
+					}
+					break;
+				case OP_RETURN:
+					return false;
+				case OP_TOALTSTACK:
+					if ( asp == alt.length )
+					{
+						alt = Arrays.copyOf (alt, asp * 2);
+					}
+					alt[asp++] = pop ();
+					break;
+				case OP_FROMALTSTACK:
+					if ( asp == 0 )
+					{
+						return false;
+					}
+					push (alt[--asp]);
+					break;
+				case OP_2DROP:
+					pop ();
+					pop ();
+					break;
+				case OP_2DUP:
+				{
+					byte[] a = top (2);
+					byte[] b = top (1);
+					push (a);
+					push (b);
+					break;
+				}
+				case OP_3DUP:
+				{
+					byte[] a = top (3);
+					byte[] b = top (2);
+					byte[] c = top (1);
+					push (a);
+					push (b);
+					push (c);
+					break;
+				}
+				case OP_2OVER:
+				{
+					byte[] a = top (4);
+					byte[] b = top (3);
+					push (a);
+					push (b);
+					break;
+				}
+				case OP_2ROT:
+				{
+					byte[] a = remove (6);
+					byte[] b = remove (5);
+					push (a);
+					push (b);
+					break;
+				}
+				case OP_2SWAP:
+				{
+					byte[] a = remove (4);
+					byte[] b = remove (3);
+					push (a);
+					push (b);
+					break;
+				}
+				case OP_IFDUP:
+					if ( isTrue (top (1)) )
+					{
+						push (top (1));
+					}
+					break;
+				case OP_DEPTH:
+					push (toBytes (sp));
+					break;
+				case OP_DROP:
+					pop ();
+					break;
+				case OP_DUP:
+					push (top (1));
+					break;
+				case OP_NIP:
+					remove (2);
+					break;
+				case OP_OVER:
+					push (top (2));
+					break;
+				case OP_PICK:
+				case OP_ROLL:
+				{
+					long n = popNumber ();
+					if ( n < 0 || n >= sp )
+					{
+						return false;
+					}
+					push (op == ScriptFormat.Opcode.OP_PICK.o ? top ((int) n + 1) : remove ((int) n + 1));
+					break;
+				}
+				case OP_ROT:
+					push (remove (3));
+					break;
+				case OP_SWAP:
+					push (remove (2));
+					break;
+				case OP_TUCK:
+				{
+					byte[] a = pop ();
+					byte[] b = pop ();
+					push (a);
+					push (b);
+					push (a);
+					break;
+				}
+				case OP_SIZE:
+					push (toBytes (top (1).length));
+					break;
+				case OP_EQUAL:
+				case OP_EQUALVERIFY:
+				{
+					boolean equal = Arrays.equals (pop (), pop ());
+					if ( op == ScriptFormat.Opcode.OP_EQUALVERIFY.o )
+					{
+						if ( !equal )
+						{
+							return false;
+						}
+					}
+					else
+					{
+						push (equal ? TRUE : FALSE);
+					}
+					break;
+				}
+				case OP_1ADD:
+					push (toBytes (popNumber () + 1));
+					break;
+				case OP_1SUB:
+					push (toBytes (popNumber () - 1));
+					break;
+				case OP_NEGATE:
+					push (toBytes (-popNumber ()));
+					break;
+				case OP_ABS:
+					push (toBytes (Math.abs (popNumber ())));
+					break;
+				case OP_NOT:
+					push (popNumber () == 0 ? TRUE : FALSE);
+					break;
+				case OP_0NOTEQUAL:
+					push (popNumber () != 0 ? TRUE : FALSE);
+					break;
+				case OP_ADD:
+				case OP_SUB:
+				case OP_BOOLAND:
+				case OP_BOOLOR:
+				case OP_NUMEQUAL:
+				case OP_NUMEQUALVERIFY:
+				case OP_NUMNOTEQUAL:
+				case OP_LESSTHAN:
+				case OP_GREATERTHAN:
+				case OP_LESSTHANOREQUAL:
+				case OP_GREATERTHANOREQUAL:
+				case OP_MIN:
+				case OP_MAX:
+				{
+					long b = popNumber ();
+					long a = popNumber ();
+					long r = 0;
+					switch ( scanner.getOp () )
+					{
+						case OP_ADD:
+							r = a + b;
+							break;
+						case OP_SUB:
+							r = a - b;
+							break;
+						case OP_BOOLAND:
+							r = a != 0 && b != 0 ? 1 : 0;
+							break;
+						case OP_BOOLOR:
+							r = a != 0 || b != 0 ? 1 : 0;
+							break;
+						case OP_NUMEQUAL:
+						case OP_NUMEQUALVERIFY:
+							r = a == b ? 1 : 0;
+							break;
+						case OP_NUMNOTEQUAL:
+							r = a != b ? 1 : 0;
+							break;
+						case OP_LESSTHAN:
+							r = a < b ? 1 : 0;
+							break;
+						case OP_GREATERTHAN:
+							r = a > b ? 1 : 0;
+							break;
+						case OP_LESSTHANOREQUAL:
+							r = a <= b ? 1 : 0;
+							break;
+						case OP_GREATERTHANOREQUAL:
+							r = a >= b ? 1 : 0;
+							break;
+						case OP_MIN:
+							r = Math.min (a, b);
+							break;
+						case OP_MAX:
+							r = Math.max (a, b);
+							break;
+					}
+					if ( op == ScriptFormat.Opcode.OP_NUMEQUALVERIFY.o )
+					{
+						if ( r == 0 )
+						{
+							return false;
+						}
+					}
+					else
+					{
+						push (toBytes (r));
+					}
+					break;
+				}
+				case OP_WITHIN:
+				{
+					long max = popNumber ();
+					long min = popNumber ();
+					long x = popNumber ();
+					push (min <= x && x < max ? TRUE : FALSE);
+					break;
+				}
+				case OP_RIPEMD160:
+				{
+					byte[] data = pop ();
+					RIPEMD160Digest digest = new RIPEMD160Digest ();
+					digest.update (data, 0, data.length);
+					byte[] h = new byte[20];
+					digest.doFinal (h, 0);
+					push (h);
+					break;
+				}
+				case OP_SHA1:
+					push (sha1Digest.get ().digest (pop ()));
+					break;
+				case OP_SHA256:
+					push (Hash.sha256 (pop ()));
+					break;
+				case OP_HASH160:
+					push (Hash.keyHash (pop ()));
+					break;
+				case OP_HASH256:
+					push (Hash.hash (pop ()));
+					break;
+				case OP_CODESEPARATOR:
+					codeSeparator = scanner.getCursor ();
+					break;
+				case OP_CHECKSIG:
+				case OP_CHECKSIGVERIFY:
+				{
+					byte[] pub = pop ();
+					byte[] sig = pop ();
+					byte[] subscript = ScriptFormat.getScriptCode (script, codeSeparator, sig);
+					boolean valid = checkSignature (sig, pub, subscript);
+					if ( op == ScriptFormat.Opcode.OP_CHECKSIGVERIFY.o )
+					{
+						if ( !valid )
+						{
+							return false;
+						}
+					}
+					else
+					{
+						push (valid ? TRUE : FALSE);
+					}
+					break;
+				}
+				case OP_CHECKMULTISIG:
+				case OP_CHECKMULTISIGVERIFY:
+				{
+					long nkeys = popNumber ();
+					if ( nkeys < 0 || nkeys > 20 )
+					{
+						return false;
+					}
+					ops += nkeys;
+					if ( ops > MAX_OPS )
+					{
+						return false;
+					}
+					byte[][] keys = new byte[(int) nkeys][];
+					for ( int i = 0; i < nkeys; ++i )
+					{
+						keys[i] = pop ();
+					}
+					long nsigs = popNumber ();
+					if ( nsigs < 0 || nsigs > nkeys )
+					{
+						return false;
+					}
+					byte[][] sigs = new byte[(int) nsigs][];
+					for ( int i = 0; i < nsigs; ++i )
+					{
+						sigs[i] = pop ();
+					}
+					// one more than needed is consumed
+					pop ();
+
+					byte[] subscript = ScriptFormat.getScriptCode (script, codeSeparator, sigs);
+					boolean valid = true;
+					int isig = 0;
+					int ikey = 0;
+					while ( valid && isig < nsigs )
+					{
+						if ( checkSignature (sigs[isig], keys[ikey], subscript) )
+						{
+							++isig;
+						}
+						++ikey;
+						if ( nsigs - isig > nkeys - ikey )
+						{
+							valid = false;
+						}
+					}
+					if ( op == ScriptFormat.Opcode.OP_CHECKMULTISIGVERIFY.o )
+					{
+						if ( !valid )
+						{
+							return false;
+						}
+					}
+					else
+					{
+						push (valid ? TRUE : FALSE);
+					}
+					break;
+				}
+				default:
+					// reserved opcodes
+					return false;
+			}
+			if ( sp + asp > MAX_STACK )
+			{
+				return false;
+			}
+		}
+		return depth == 0;
+	}
+
+	private static boolean isDisabled (int op)
+	{
+		switch ( op )
+		{
+			case 101: // OP_VERIF
+			case 102: // OP_VERNOTIF
+			case 126: // OP_CAT
+			case 127: // OP_SUBSTR
+			case 128: // OP_LEFT
+			case 129: // OP_RIGHT
+			case 131: // OP_INVERT
+			case 132: // OP_AND
+			case 133: // OP_OR
+			case 134: // OP_XOR
+			case 141: // OP_2MUL
+			case 142: // OP_2DIV
+			case 149: // OP_MUL
+			case 150: // OP_DIV
+			case 151: // OP_MOD
+			case 152: // OP_LSHIFT
+			case 153: // OP_RSHIFT
+				return true;
+		}
+		return false;
+	}
+
+	private boolean checkSignature (byte[] sig, byte[] pub, byte[] subscript)
+	{
+		if ( sig.length == 0 )
+		{
+			return false;
+		}
+		byte[] hash = signatureHash (subscript, sig[sig.length - 1] & 0xff);
+		return ECKeyPair.verify (hash, Arrays.copyOf (sig, sig.length - 1), pub);
+	}
+
+	/**
+	 * Hash signed by an input's signature
+	 */
+	byte[] signatureHash (byte[] subscript, int hashType)
+	{
+		if ( signatureHash == null )
+		{
+			signatureHash = new SignatureHash (transaction);
+		}
+		return signatureHash.hash (inr, subscript, hashType);
+	}
+
+	private void push (byte[] data)
+	{
+		if ( sp == stack.length )
+		{
+			stack = Arrays.copyOf (stack, sp * 2);
+		}
+		stack[sp++] = data;
+	}
+
+	private byte[] pop () throws ValidationException
+	{
+		if ( sp == 0 )
+		{
+			throw new ValidationException ("Stack underflow");
+		}
+		byte[] data = stack[--sp];
+		stack[sp] = null;
+		return data;
+	}
+
+	// n-th element from the top, 1 is the top
+	private byte[] top (int n) throws ValidationException
+	{
+		if ( n > sp )
+		{
+			throw new ValidationException ("Stack underflow");
+		}
+		return stack[sp - n];
+	}
+
+	// remove the n-th element from the top, 1 is the top
+	private byte[] remove (int n) throws ValidationException
+	{
+		byte[] data = top (n);
+		System.arraycopy (stack, sp - n + 1, stack, sp - n, n - 1);
+		stack[--sp] = null;
+		return data;
+	}
+
+	private long popNumber () throws ValidationException
+	{
+		byte[] b = pop ();
+		if ( b.length > 4 )
+		{
+			throw new ValidationException ("Number overflow");
+		}
+		return toNumber (b);
+	}
+
+	/**
+	 * number of the script's little endian sign and magnitude encoding
+	 */
+	static long toNumber (byte[] b)
+	{
+		if ( b.length == 0 )
+		{
+			return 0;
+		}
+		long n = 0;
+		for ( int i = 0; i < b.length; ++i )
+		{
+			n |= (b[i] & 0xffL) << (8 * i);
+		}
+		long sign = 0x80L << (8 * (b.length - 1));
+		if ( (n & sign) != 0 )
+		{
+			return -(n & ~sign);
+		}
+		return n;
+	}
+
+	static byte[] toBytes (long n)
+	{
+		if ( n == 0 )
+		{
+			return FALSE;
+		}
+		long a = Math.abs (n);
+		int length = 0;
+		for ( long m = a; m != 0; m >>>= 8 )
+		{
+			++length;
+		}
+		if ( ((a >>> (8 * (length - 1))) & 0x80) != 0 )
+		{
+			++length;
+		}
+		byte[] b = new byte[length];
+		for ( int i = 0; i < length; ++i )
+		{
+			b[i] = (byte) (a >>> (8 * i));
+		}
+		if ( n < 0 )
+		{
+			b[length - 1] |= 0x80;
+		}
+		return b;
+	}
+
+	static boolean isTrue (byte[] b)
+	{
+		for ( int i = 0; i < b.length; ++i )
+		{
+			if ( b[i] != 0 )
+			{
+				// negative zero is false
+				return i != b.length - 1 || b[i] != (byte) 0x80;
+			}
+		}
+		return false;
+	}
+}
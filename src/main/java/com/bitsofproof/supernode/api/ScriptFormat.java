@@ -4,6 +4,7 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.StringTokenizer;
 
@@ -140,6 +141,14 @@ public class ScriptFormat
 		}
 	}
 
+	// values () clones the array on every call
+	private static final Opcode[] OPCODES = Opcode.values ();
+
+	public static enum ScriptType
+	{
+		PAY_TO_ADDRESS, PAY_TO_KEY, PAY_TO_SCRIPT_HASH, MULTISIG, NONSTANDARD
+	}
+
 	public static class Token
 	{
 		public Opcode op;
@@ -159,6 +168,7 @@ public class ScriptFormat
 	public static class Reader
 	{
 		private final byte[] bytes;
+		private final int end;
 		int cursor;
 
 		public Reader (byte[] s)
@@ -166,11 +176,22 @@ public class ScriptFormat
 			this.bytes = new byte[s.length];
 			System.arraycopy (s, 0, this.bytes, 0, s.length);
 			this.cursor = 0;
+			this.end = s.length;
+		}
+
+		/**
+		 * reader of a range of the array, in place without copying it
+		 */
+		public Reader (byte[] s, int offset, int length)
+		{
+			this.bytes = s;
+			this.cursor = offset;
+			this.end = offset + length;
 		}
 
 		public boolean eof ()
 		{
-			return cursor == bytes.length;
+			return cursor >= end;
 		}
 
 		public byte[] readBytes (int n)
@@ -307,7 +328,8 @@ public class ScriptFormat
 
 		public Tokenizer (byte[] script)
 		{
-			reader = new Reader (script);
+			// the script is not modified, no need to copy it
+			reader = new Reader (script, 0, script.length);
 		}
 
 		public boolean hashMoreElements ()
@@ -330,7 +352,7 @@ public class ScriptFormat
 			{
 				throw new ValidationException ("Invalid script" + ix + " opcode at " + reader.cursor);
 			}
-			Opcode op = Opcode.values ()[ix];
+			Opcode op = OPCODES[ix];
 			token.op = op;
 			if ( op.o <= 75 )
 			{
@@ -359,6 +381,293 @@ public class ScriptFormat
 		}
 	}
 
+	/**
+	 * Tokenizer without allocation. The scanner is positioned on a token by next (), push data is given as offset and
+	 * length into the script. A scanner can be reused for an other script by reset.
+	 */
+	public static class Scanner
+	{
+		private byte[] script;
+		private int end;
+		private int cursor;
+		private int start;
+		private int op;
+		private int dataOffset;
+		private int dataLength;
+
+		public Scanner (byte[] script)
+		{
+			reset (script, 0, script.length);
+		}
+
+		public Scanner (byte[] script, int offset, int length)
+		{
+			reset (script, offset, length);
+		}
+
+		public void reset (byte[] script, int offset, int length)
+		{
+			this.script = script;
+			this.cursor = offset;
+			this.end = offset + length;
+			this.start = offset;
+			this.op = -1;
+			this.dataOffset = -1;
+			this.dataLength = 0;
+		}
+
+		/**
+		 * advance to the next token
+		 *
+		 * @return false if there are no more tokens
+		 * @throws ValidationException
+		 *             for an invalid opcode or push data beyond the end of the script
+		 */
+		public boolean next () throws ValidationException
+		{
+			if ( cursor >= end )
+			{
+				return false;
+			}
+			start = cursor;
+			op = script[cursor++] & 0xff;
+			if ( op > 185 )
+			{
+				throw new ValidationException ("Invalid script" + op + " opcode at " + cursor);
+			}
+			if ( op <= 78 )
+			{
+				int n;
+				if ( op <= 75 )
+				{
+					n = op;
+				}
+				else if ( op == 76 )
+				{
+					n = readLength (1);
+				}
+				else if ( op == 77 )
+				{
+					n = readLength (2);
+				}
+				else
+				{
+					n = readLength (4);
+				}
+				if ( n < 0 || n > end - cursor )
+				{
+					throw new ValidationException ("Push data beyond end of script at " + start);
+				}
+				dataOffset = cursor;
+				dataLength = n;
+				cursor += n;
+			}
+			else
+			{
+				dataOffset = -1;
+				dataLength = 0;
+			}
+			return true;
+		}
+
+		private int readLength (int size) throws ValidationException
+		{
+			if ( end - cursor < size )
+			{
+				throw new ValidationException ("Push length beyond end of script at " + start);
+			}
+			int n = 0;
+			for ( int i = size - 1; i >= 0; --i )
+			{
+				n = (n << 8) | (script[cursor + i] & 0xff);
+			}
+			cursor += size;
+			return n;
+		}
+
+		public int getOpcode ()
+		{
+			return op;
+		}
+
+		public Opcode getOp ()
+		{
+			return OPCODES[op];
+		}
+
+		/**
+		 * @return true if the token pushes data, OP_FALSE included
+		 */
+		public boolean isPush ()
+		{
+			return op <= 78;
+		}
+
+		/**
+		 * @return offset of the push data in the script, -1 if the token is not a push
+		 */
+		public int getDataOffset ()
+		{
+			return dataOffset;
+		}
+
+		public int getDataLength ()
+		{
+			return dataLength;
+		}
+
+		/**
+		 * @return offset of the token's opcode in the script
+		 */
+		public int getStart ()
+		{
+			return start;
+		}
+
+		public int getCursor ()
+		{
+			return cursor;
+		}
+
+		public byte[] getScript ()
+		{
+			return script;
+		}
+	}
+
+	/**
+	 * Type of a script and the location of its payload within the script: the key hash of pay to address, the key of pay
+	 * to key, the script hash of pay to script hash. Keys of pay to key and multisig are also given as key offsets, that
+	 * of multisig in the order of the script.
+	 */
+	public static class Template
+	{
+		private final byte[] script;
+		private ScriptType type = ScriptType.NONSTANDARD;
+		private int payloadOffset = -1;
+		private int payloadLength = 0;
+		private int requiredSignatures = 0;
+		private int keyCount = 0;
+		private int[] keyOffsets;
+		private int[] keyLengths;
+
+		private Template (byte[] script)
+		{
+			this.script = script;
+		}
+
+		public ScriptType getType ()
+		{
+			return type;
+		}
+
+		public boolean isStandard ()
+		{
+			return type != ScriptType.NONSTANDARD;
+		}
+
+		/**
+		 * @return the classified script, offsets are relative to it
+		 */
+		public byte[] getScript ()
+		{
+			return script;
+		}
+
+		/**
+		 * @return offset of the payload, -1 for multisig and nonstandard scripts
+		 */
+		public int getPayloadOffset ()
+		{
+			return payloadOffset;
+		}
+
+		public int getPayloadLength ()
+		{
+			return payloadLength;
+		}
+
+		public byte[] getPayload ()
+		{
+			return payloadOffset < 0 ? null : Arrays.copyOfRange (script, payloadOffset, payloadOffset + payloadLength);
+		}
+
+		/**
+		 * @return number of signatures needed to spend, 0 for nonstandard scripts
+		 */
+		public int getRequiredSignatures ()
+		{
+			return requiredSignatures;
+		}
+
+		/**
+		 * @return number of keys in the script, 1 for pay to key, 0 if keys are only given as hash
+		 */
+		public int getKeyCount ()
+		{
+			return keyCount;
+		}
+
+		public int getKeyOffset (int i)
+		{
+			return keyOffsets[i];
+		}
+
+		public int getKeyLength (int i)
+		{
+			return keyLengths[i];
+		}
+
+		public byte[] getKey (int i)
+		{
+			return Arrays.copyOfRange (script, keyOffsets[i], keyOffsets[i] + keyLengths[i]);
+		}
+
+		/**
+		 * @return address of a pay to address, pay to key or pay to script hash script, null for others
+		 */
+		public String getAddress (ChainParameter chain)
+		{
+			switch ( type )
+			{
+				case PAY_TO_ADDRESS:
+					return AddressConverter.toSatoshiStyle (script, payloadOffset, payloadLength, false, chain);
+				case PAY_TO_SCRIPT_HASH:
+					return AddressConverter.toSatoshiStyle (script, payloadOffset, payloadLength, true, chain);
+				case PAY_TO_KEY:
+					return getKeyAddress (0, chain);
+				default:
+					return null;
+			}
+		}
+
+		/**
+		 * @return address of the i-th key of a pay to key or multisig script
+		 */
+		public String getKeyAddress (int i, ChainParameter chain)
+		{
+			return AddressConverter.toSatoshiStyle (Hash.keyHash (script, keyOffsets[i], keyLengths[i]), false, chain);
+		}
+
+		private Template payload (ScriptType type, int offset, int length)
+		{
+			this.type = type;
+			this.payloadOffset = offset;
+			this.payloadLength = length;
+			this.requiredSignatures = 1;
+			return this;
+		}
+
+		private Template keys (int required, int n, int[] offsets, int[] lengths)
+		{
+			this.requiredSignatures = required;
+			this.keyCount = n;
+			this.keyOffsets = offsets;
+			this.keyLengths = lengths;
+			return this;
+		}
+	}
+
 	public static class Number
 	{
 		byte[] w;
@@ -472,9 +781,10 @@ public class ScriptFormat
 
 	public static boolean isPushOnly (byte[] script) throws ValidationException
 	{
-		for ( ScriptFormat.Token t : parse (script) )
+		Scanner scanner = new Scanner (script);
+		while ( scanner.next () )
 		{
-			if ( t.op.o > 78 )
+			if ( !scanner.isPush () )
 			{
 				return false;
 			}
@@ -489,14 +799,13 @@ public class ScriptFormat
 		try
 		{
 			ScriptFormat.Opcode last = ScriptFormat.Opcode.OP_FALSE;
-			ScriptFormat.Tokenizer tokenizer = new ScriptFormat.Tokenizer (script);
-			while ( tokenizer.hashMoreElements () )
+			ScriptFormat.Scanner scanner = new ScriptFormat.Scanner (script);
+			while ( scanner.next () )
 			{
-				ScriptFormat.Token token = tokenizer.nextToken ();
-
-				if ( token.data == null )
+				if ( !scanner.isPush () )
 				{
-					switch ( token.op )
+					ScriptFormat.Opcode op = scanner.getOp ();
+					switch ( op )
 					{
 						case OP_CHECKSIG:
 						case OP_CHECKSIGVERIFY:
@@ -515,7 +824,7 @@ public class ScriptFormat
 							}
 							break;
 					}
-					last = token.op;
+					last = op;
 				}
 			}
 		}
@@ -652,92 +961,202 @@ public class ScriptFormat
 		return b.toString ();
 	}
 
-	public static boolean isPayToScriptHash (byte[] script)
+	public static Template classify (byte[] script)
 	{
-		try
-		{
-			List<ScriptFormat.Token> parsed = parse (script);
-			return parsed.size () == 3 && parsed.get (0).op == ScriptFormat.Opcode.OP_HASH160 && (parsed.get (1).data != null && parsed.get (1).op.o <= 75)
-					&& parsed.get (1).data.length == 20 && parsed.get (2).op == ScriptFormat.Opcode.OP_EQUAL;
-		}
-		catch ( ValidationException e )
-		{
-			return false;
-		}
+		return classify (script, 0, script.length);
 	}
 
-	public static boolean isPayToKey (byte[] script)
+	// OP_DUP OP_HASH160 <20 bytes> OP_EQUALVERIFY OP_CHECKSIG in its canonical encoding
+	private static boolean isCanonicalPayToAddress (byte[] s, int offset, int length)
 	{
-		try
-		{
-			List<ScriptFormat.Token> parsed = parse (script);
-			return parsed.size () == 2 && parsed.get (0).data != null && parsed.get (0).data.length >= 33 && parsed.get (0).data.length <= 120
-					&& parsed.get (1).op == ScriptFormat.Opcode.OP_CHECKSIG;
-		}
-		catch ( ValidationException e )
-		{
-			return false;
-		}
+		return length == 25 && s[offset] == (byte) 0x76 && s[offset + 1] == (byte) 0xa9 && s[offset + 2] == 20 && s[offset + 23] == (byte) 0x88
+				&& s[offset + 24] == (byte) 0xac;
 	}
 
-	public static boolean isPayToAddress (byte[] script)
+	// OP_HASH160 <20 bytes> OP_EQUAL
+	private static boolean isCanonicalPayToScriptHash (byte[] s, int offset, int length)
 	{
-		try
+		return length == 23 && s[offset] == (byte) 0xa9 && s[offset + 1] == 20 && s[offset + 22] == (byte) 0x87;
+	}
+
+	// <33 or 65 bytes> OP_CHECKSIG
+	private static boolean isCanonicalPayToKey (byte[] s, int offset, int length)
+	{
+		return (length == 35 || length == 67) && s[offset] == length - 2 && s[offset + length - 1] == (byte) 0xac;
+	}
+
+	/**
+	 * Classify a script. The canonical forms of pay to address, pay to script hash and pay to key are recognized by
+	 * their length and fixed bytes, other scripts in a single pass over their tokens. Payload offsets of the template are
+	 * relative to the array.
+	 */
+	public static Template classify (byte[] script, int offset, int length)
+	{
+		if ( isCanonicalPayToAddress (script, offset, length) )
 		{
-			List<ScriptFormat.Token> parsed = parse (script);
-			return parsed.size () == 5 && parsed.get (0).op == ScriptFormat.Opcode.OP_DUP && parsed.get (1).op == ScriptFormat.Opcode.OP_HASH160
-					&& parsed.get (2).data != null && parsed.get (2).data.length == 20 && parsed.get (3).op == ScriptFormat.Opcode.OP_EQUALVERIFY
-					&& parsed.get (4).op == ScriptFormat.Opcode.OP_CHECKSIG;
+			return new Template (script).payload (ScriptType.PAY_TO_ADDRESS, offset + 3, 20);
 		}
-		catch ( ValidationException e )
+		if ( isCanonicalPayToScriptHash (script, offset, length) )
+		{
+			return new Template (script).payload (ScriptType.PAY_TO_SCRIPT_HASH, offset + 2, 20);
+		}
+		if ( isCanonicalPayToKey (script, offset, length) )
 		{
-			return false;
+			return new Template (script).payload (ScriptType.PAY_TO_KEY, offset + 1, length - 2).keys (1, 1, new int[] { offset + 1 },
+					new int[] { length - 2 });
 		}
+		return classifyTokens (script, offset, length);
 	}
 
-	public static boolean isMultiSig (byte[] script)
+	// general classification over the tokens of the script
+	static Template classifyTokens (byte[] script, int offset, int length)
 	{
+		Template template = new Template (script);
 		try
 		{
-			List<ScriptFormat.Token> parsed = parse (script);
-			int nkeys = -1;
-			int nvotes = -1;
-			for ( int i = 0; i < parsed.size (); ++i )
+			Scanner scanner = new Scanner (script, offset, length);
+			if ( !scanner.next () )
+			{
+				return template;
+			}
+			int op = scanner.getOpcode ();
+			if ( op == Opcode.OP_DUP.o )
 			{
-				if ( parsed.get (i).op == ScriptFormat.Opcode.OP_CHECKMULTISIG || parsed.get (i).op == ScriptFormat.Opcode.OP_CHECKMULTISIGVERIFY )
+				// OP_DUP OP_HASH160 <key hash> OP_EQUALVERIFY OP_CHECKSIG
+				if ( scanner.next () && scanner.getOpcode () == Opcode.OP_HASH160.o && scanner.next () && scanner.isPush ()
+						&& scanner.getDataLength () == 20 )
 				{
-					nkeys = parsed.get (i - 1).op.ordinal () - ScriptFormat.Opcode.OP_1.ordinal () + 1;
-					nvotes = parsed.get (i - nkeys - 2).op.ordinal () - ScriptFormat.Opcode.OP_1.ordinal () + 1;
-					break;
+					int hash = scanner.getDataOffset ();
+					if ( scanner.next () && scanner.getOpcode () == Opcode.OP_EQUALVERIFY.o && scanner.next ()
+							&& scanner.getOpcode () == Opcode.OP_CHECKSIG.o && !scanner.next () )
+					{
+						return template.payload (ScriptType.PAY_TO_ADDRESS, hash, 20);
+					}
 				}
 			}
-			if ( nkeys <= 0 || nkeys > 3 )
+			else if ( op == Opcode.OP_HASH160.o )
 			{
-				return false;
+				// OP_HASH160 <script hash> OP_EQUAL
+				if ( scanner.next () && scanner.getOpcode () <= 75 && scanner.getDataLength () == 20 )
+				{
+					int hash = scanner.getDataOffset ();
+					if ( scanner.next () && scanner.getOpcode () == Opcode.OP_EQUAL.o && !scanner.next () )
+					{
+						return template.payload (ScriptType.PAY_TO_SCRIPT_HASH, hash, 20);
+					}
+				}
 			}
-			if ( parsed.size () != nkeys + 3 )
+			else if ( scanner.isPush () )
 			{
-				return false;
+				// <key> OP_CHECKSIG
+				int key = scanner.getDataOffset ();
+				int keyLength = scanner.getDataLength ();
+				if ( keyLength >= 33 && keyLength <= 120 && scanner.next () && scanner.getOpcode () == Opcode.OP_CHECKSIG.o && !scanner.next () )
+				{
+					return template.payload (ScriptType.PAY_TO_KEY, key, keyLength).keys (1, 1, new int[] { key }, new int[] { keyLength });
+				}
 			}
-			if ( nvotes < 0 || nvotes > nkeys )
+			else if ( op >= Opcode.OP_1.o && op <= Opcode.OP_3.o )
 			{
-				return false;
+				// OP_m <key>... OP_n OP_CHECKMULTISIG
+				int m = op - Opcode.OP_1.o + 1;
+				int nkeys = 0;
+				int[] offsets = new int[3];
+				int[] lengths = new int[3];
+				while ( scanner.next () && scanner.isPush () )
+				{
+					if ( nkeys == 3 || scanner.getDataLength () < 33 || scanner.getDataLength () > 120 )
+					{
+						return template;
+					}
+					offsets[nkeys] = scanner.getDataOffset ();
+					lengths[nkeys] = scanner.getDataLength ();
+					++nkeys;
+				}
+				if ( nkeys >= m && scanner.getOpcode () == Opcode.OP_1.o + nkeys - 1 && scanner.next ()
+						&& scanner.getOpcode () == Opcode.OP_CHECKMULTISIG.o && !scanner.next () )
+				{
+					return template.payload (ScriptType.MULTISIG, -1, 0).keys (m, nkeys, offsets, lengths);
+				}
 			}
 		}
 		catch ( ValidationException e )
 		{
-			return false;
 		}
-		return true;
+		return template;
+	}
+
+	public static boolean isPayToScriptHash (byte[] script)
+	{
+		if ( isCanonicalPayToScriptHash (script, 0, script.length) )
+		{
+			return true;
+		}
+		return classify (script).getType () == ScriptType.PAY_TO_SCRIPT_HASH;
+	}
+
+	public static boolean isPayToKey (byte[] script)
+	{
+		return classify (script).getType () == ScriptType.PAY_TO_KEY;
+	}
+
+	public static boolean isPayToAddress (byte[] script)
+	{
+		if ( isCanonicalPayToAddress (script, 0, script.length) )
+		{
+			return true;
+		}
+		return classify (script).getType () == ScriptType.PAY_TO_ADDRESS;
+	}
+
+	public static boolean isMultiSig (byte[] script)
+	{
+		return classify (script).getType () == ScriptType.MULTISIG;
 	}
 
 	public static boolean isStandard (byte[] script)
 	{
-		return isPayToAddress (script) || isPayToKey (script) || isPayToScriptHash (script) || isMultiSig (script);
+		return classify (script).isStandard ();
+	}
+
+	/**
+	 * write the canonical 25 bytes OP_DUP OP_HASH160 &lt;keyHash&gt; OP_EQUALVERIFY OP_CHECKSIG
+	 *
+	 * @return bytes written
+	 */
+	public static int writePayToAddressScript (byte[] keyHash, int hashOffset, byte[] out, int offset)
+	{
+		out[offset] = (byte) Opcode.OP_DUP.o;
+		out[offset + 1] = (byte) Opcode.OP_HASH160.o;
+		out[offset + 2] = 20;
+		System.arraycopy (keyHash, hashOffset, out, offset + 3, 20);
+		out[offset + 23] = (byte) Opcode.OP_EQUALVERIFY.o;
+		out[offset + 24] = (byte) Opcode.OP_CHECKSIG.o;
+		return 25;
+	}
+
+	/**
+	 * write the canonical 23 bytes OP_HASH160 &lt;scriptHash&gt; OP_EQUAL
+	 *
+	 * @return bytes written
+	 */
+	public static int writePayToScriptHashScript (byte[] scriptHash, int hashOffset, byte[] out, int offset)
+	{
+		out[offset] = (byte) Opcode.OP_HASH160.o;
+		out[offset + 1] = 20;
+		System.arraycopy (scriptHash, hashOffset, out, offset + 2, 20);
+		out[offset + 22] = (byte) Opcode.OP_EQUAL.o;
+		return 23;
 	}
 
 	public static byte[] getPayToAddressScript (byte[] keyHash)
 	{
+		if ( keyHash.length == 20 )
+		{
+			byte[] script = new byte[25];
+			writePayToAddressScript (keyHash, 0, script, 0);
+			return script;
+		}
 		ScriptFormat.Writer writer = new ScriptFormat.Writer ();
 		writer.writeToken (new ScriptFormat.Token (ScriptFormat.Opcode.OP_DUP));
 		writer.writeToken (new ScriptFormat.Token (ScriptFormat.Opcode.OP_HASH160));
@@ -747,34 +1166,77 @@ public class ScriptFormat
 		return writer.toByteArray ();
 	}
 
+	/**
+	 * copy of the script without direct pushes of the signature, other tokens are kept in their original encoding
+	 */
 	public static byte[] deleteSignatureFromScript (byte[] script, byte[] sig) throws ValidationException
 	{
-		ScriptFormat.Tokenizer tokenizer = new ScriptFormat.Tokenizer (script);
-		ScriptFormat.Writer writer = new ScriptFormat.Writer ();
-		while ( tokenizer.hashMoreElements () )
+		byte[] out = new byte[script.length];
+		int n = 0;
+		Scanner scanner = new Scanner (script);
+		while ( scanner.next () )
 		{
-			ScriptFormat.Token token = tokenizer.nextToken ();
-			if ( token.data != null && token.op.o <= 75 && token.data.length == sig.length )
+			if ( !(scanner.getOpcode () == sig.length && sig.length <= 75 && equalsRange (script, scanner.getDataOffset (), sig)) )
 			{
-				boolean found = true;
-				for ( int i = 0; i < sig.length; ++i )
-				{
-					if ( sig[i] != token.data[i] )
-					{
-						found = false;
-						break;
-					}
-				}
-				if ( !found )
-				{
-					writer.writeToken (token);
-				}
+				int length = scanner.getCursor () - scanner.getStart ();
+				System.arraycopy (script, scanner.getStart (), out, n, length);
+				n += length;
 			}
-			else
+		}
+		return n == script.length ? out : Arrays.copyOf (out, n);
+	}
+
+	private static boolean equalsRange (byte[] a, int offset, byte[] b)
+	{
+		for ( int i = 0; i < b.length; ++i )
+		{
+			if ( a[offset + i] != b[i] )
 			{
-				writer.writeToken (token);
+				return false;
 			}
 		}
-		return writer.toByteArray ();
+		return true;
+	}
+
+	/**
+	 * The scriptCode signed by OP_CHECKSIG and OP_CHECKMULTISIG, as the reference implementation builds it: the script
+	 * from the last executed OP_CODESEPARATOR on, with direct pushes of the signatures and then all OP_CODESEPARATOR
+	 * removed. The remaining tokens are copied byte for byte, so pushes in PUSHDATA1/2/4 encoding keep their length.
+	 *
+	 * @param script
+	 *            script of the output spent, or the redeem script of pay to script hash
+	 * @param codeSeparator
+	 *            offset after the last executed OP_CODESEPARATOR, 0 if none
+	 * @param signatures
+	 *            signatures checked, as pushed by the input
+	 */
+	public static byte[] getScriptCode (byte[] script, int codeSeparator, byte[]... signatures) throws ValidationException
+	{
+		byte[] scriptCode = Arrays.copyOfRange (script, codeSeparator, script.length);
+		for ( byte[] sig : signatures )
+		{
+			scriptCode = deleteSignatureFromScript (scriptCode, sig);
+		}
+		return deleteCodeSeparators (scriptCode);
+	}
+
+	/**
+	 * copy of the script without OP_CODESEPARATOR operations, other tokens are kept in their original encoding
+	 */
+	public static byte[] deleteCodeSeparators (byte[] script) throws ValidationException
+	{
+		byte[] out = new byte[script.length];
+		int n = 0;
+		Scanner scanner = new Scanner (script);
+		while ( scanner.next () )
+		{
+			if ( scanner.getOpcode () != Opcode.OP_CODESEPARATOR.o )
+			{
+				int length = scanner.getCursor () - scanner.getStart ();
+				System.arraycopy (script, scanner.getStart (), out, n, length);
+				n += length;
+			}
+		}
+		return n == script.length ? out : Arrays.copyOf (out, n);
 	}
 }
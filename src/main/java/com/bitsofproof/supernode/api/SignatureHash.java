@@ -0,0 +1,230 @@
+/*
+ * Copyright 2012 Tamas Blummer tamas@bitsofproof.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitsofproof.supernode.api;
+
+import java.util.List;
+
+/**
+ * Signature hashes of the inputs of a transaction. The transaction is serialized once: inputs with empty scripts into a
+ * flat buffer of fixed size records, outputs into an other. The hash of an input is then computed from these segments
+ * without copying, continuing the digest of the common prefix of the inputs before it. Computing the hashes of all inputs
+ * in order digests every prefix only once.
+ * <p>
+ * The transaction must not be modified while the calculator is in use. An instance is not thread safe, but copies
+ * sharing the serialized segments can be used on other threads.
+ */
+public class SignatureHash
+{
+	// outpoint, empty script, sequence
+	private static final int BLANK_INPUT = 32 + 4 + 1 + 4;
+	// value -1 and empty script of outputs before the one signed with SIGHASH_SINGLE
+	private static final byte[] BLANK_OUTPUT = { -1, -1, -1, -1, -1, -1, -1, -1, 0 };
+
+	private final Transaction transaction;
+	private final int nin;
+	private final byte[] header;
+	private final byte[] inputs;
+	private byte[] zeroSequenceInputs;
+	private final byte[] outputs;
+	private final int[] outputOffsets;
+	private final byte[] lockTime;
+
+	// digest of the header and the first prefix[k] blank inputs, k = 1 if inputs of other than the signed have sequence 0
+	private final Hash.Hasher[] prefix = new Hash.Hasher[2];
+	private final int[] prefixInputs = new int[2];
+
+	public SignatureHash (Transaction transaction)
+	{
+		this.transaction = transaction;
+		List<TransactionInput> ins = transaction.getInputs ();
+		nin = ins == null ? 0 : ins.size ();
+
+		WireFormat.Writer writer = new WireFormat.Writer (4 + 9);
+		writer.writeUint32 (transaction.getVersion ());
+		writer.writeVarInt (nin);
+		header = writer.toByteArray ();
+
+		writer = new WireFormat.Writer (nin * BLANK_INPUT);
+		for ( int i = 0; i < nin; ++i )
+		{
+			TransactionInput in = ins.get (i);
+			writer.writeHash (in.getBinarySourceHash ());
+			writer.writeUint32 (in.getIx ());
+			writer.writeVarInt (0);
+			writer.writeUint32 (in.getSequence ());
+		}
+		inputs = writer.toByteArray ();
+
+		List<TransactionOutput> outs = transaction.getOutputs ();
+		int nout = outs == null ? 0 : outs.size ();
+		outputOffsets = new int[nout + 1];
+		int size = 0;
+		for ( int i = 0; i < nout; ++i )
+		{
+			size += outs.get (i).getWireSize ();
+		}
+		writer = new WireFormat.Writer (WireFormat.varIntSize (nout) + size);
+		writer.writeVarInt (nout);
+		for ( int i = 0; i < nout; ++i )
+		{
+			outputOffsets[i] = writer.size ();
+			outs.get (i).toWire (writer);
+		}
+		outputOffsets[nout] = writer.size ();
+		outputs = writer.toByteArray ();
+
+		writer = new WireFormat.Writer (4);
+		writer.writeUint32 (transaction.getLockTime ());
+		lockTime = writer.toByteArray ();
+	}
+
+	/**
+	 * calculator sharing the serialized segments of an other, to be used on an other thread
+	 */
+	public SignatureHash (SignatureHash other)
+	{
+		transaction = other.transaction;
+		nin = other.nin;
+		header = other.header;
+		inputs = other.inputs;
+		outputs = other.outputs;
+		outputOffsets = other.outputOffsets;
+		lockTime = other.lockTime;
+	}
+
+	public Transaction getTransaction ()
+	{
+		return transaction;
+	}
+
+	/**
+	 * Hash signed by the signature of an input.
+	 *
+	 * @param inr
+	 *            index of the signing input
+	 * @param subscript
+	 *            the scriptCode: the script of the output spent (or the redeem script) from the last executed
+	 *            OP_CODESEPARATOR on, with the signatures and all OP_CODESEPARATOR removed, as built by
+	 *            ScriptFormat.getScriptCode
+	 * @param hashType
+	 *            SIGHASH type
+	 * @return the double SHA256 digest to sign
+	 */
+	public byte[] hash (int inr, byte[] subscript, int hashType)
+	{
+		if ( inr < 0 || inr >= nin )
+		{
+			throw new IndexOutOfBoundsException ("No input " + inr);
+		}
+		int type = hashType & 0x1f;
+		boolean anyoneCanPay = (hashType & ScriptFormat.SIGHASH_ANYONECANPAY) != 0;
+		boolean zeroSequence = type == ScriptFormat.SIGHASH_NONE || type == ScriptFormat.SIGHASH_SINGLE;
+		int nout = outputOffsets.length - 1;
+
+		if ( type == ScriptFormat.SIGHASH_SINGLE && inr >= nout )
+		{
+			// signs 1, a known bug of the reference implementation
+			byte[] one = new byte[32];
+			one[0] = 1;
+			return one;
+		}
+
+		byte[] blanks = zeroSequence ? getZeroSequenceInputs () : inputs;
+		Hash.Hasher hasher;
+		if ( anyoneCanPay )
+		{
+			hasher = new Hash.Hasher ();
+			hasher.update (header, 0, 4);
+			hasher.update (new byte[] { 1 });
+		}
+		else
+		{
+			hasher = prefix (zeroSequence ? 1 : 0, blanks, inr).copy ();
+		}
+
+		// the signing input with the subscript and its own sequence
+		hasher.update (inputs, inr * BLANK_INPUT, 36);
+		hasher.update (varInt (subscript.length));
+		hasher.update (subscript);
+		hasher.update (inputs, inr * BLANK_INPUT + 37, 4);
+
+		if ( !anyoneCanPay )
+		{
+			hasher.update (blanks, (inr + 1) * BLANK_INPUT, (nin - inr - 1) * BLANK_INPUT);
+		}
+
+		if ( type == ScriptFormat.SIGHASH_NONE )
+		{
+			hasher.update (new byte[] { 0 });
+		}
+		else if ( type == ScriptFormat.SIGHASH_SINGLE )
+		{
+			hasher.update (varInt (inr + 1));
+			for ( int i = 0; i < inr; ++i )
+			{
+				hasher.update (BLANK_OUTPUT);
+			}
+			hasher.update (outputs, outputOffsets[inr], outputOffsets[inr + 1] - outputOffsets[inr]);
+		}
+		else
+		{
+			hasher.update (outputs);
+		}
+		hasher.update (lockTime);
+		hasher.update (new byte[] { (byte) hashType, (byte) (hashType >>> 8), (byte) (hashType >>> 16), (byte) (hashType >>> 24) });
+
+		byte[] hash = new byte[32];
+		hasher.hash (hash, 0);
+		return hash;
+	}
+
+	private static byte[] varInt (long n)
+	{
+		WireFormat.Writer writer = new WireFormat.Writer (WireFormat.varIntSize (n));
+		writer.writeVarInt (n);
+		return writer.toByteArray ();
+	}
+
+	// digest of the header and the blank inputs before inr, advanced from the last one computed if possible
+	private Hash.Hasher prefix (int k, byte[] blanks, int inr)
+	{
+		if ( prefix[k] == null || prefixInputs[k] > inr )
+		{
+			prefix[k] = new Hash.Hasher ();
+			prefix[k].update (header);
+			prefixInputs[k] = 0;
+		}
+		prefix[k].update (blanks, prefixInputs[k] * BLANK_INPUT, (inr - prefixInputs[k]) * BLANK_INPUT);
+		prefixInputs[k] = inr;
+		return prefix[k];
+	}
+
+	private byte[] getZeroSequenceInputs ()
+	{
+		if ( zeroSequenceInputs == null )
+		{
+			zeroSequenceInputs = inputs.clone ();
+			for ( int i = 0; i < nin; ++i )
+			{
+				for ( int j = 0; j < 4; ++j )
+				{
+					zeroSequenceInputs[i * BLANK_INPUT + 37 + j] = 0;
+				}
+			}
+		}
+		return zeroSequenceInputs;
+	}
+}
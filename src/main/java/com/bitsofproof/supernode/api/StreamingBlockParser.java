@@ -0,0 +1,167 @@
+/*
+ * Copyright 2012 Tamas Blummer tamas@bitsofproof.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitsofproof.supernode.api;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Arrays;
+
+/**
+ * Single pass parser of blocks in wire format from a stream. Events are delivered to a listener as the stream is read:
+ * the header, then every transaction with its offset within the block, then the end of the block. Only the transaction
+ * being parsed is held in memory.
+ */
+public class StreamingBlockParser
+{
+	public interface Listener
+	{
+		/**
+		 * header of the block, its transactions are null
+		 */
+		public void header (Block header, long transactions);
+
+		/**
+		 * transaction at index with its hash computed, offset is the position of its wire format within the block
+		 */
+		public void transaction (Transaction transaction, int index, long offset);
+
+		public void end (Block header);
+	}
+
+	public static final int MAX_TRANSACTION_SIZE = 1000000;
+
+	private final InputStream input;
+	private final int maxTransactionSize;
+	private byte[] scratch = new byte[1024];
+	private int length;
+
+	public StreamingBlockParser (InputStream input)
+	{
+		this (input, MAX_TRANSACTION_SIZE);
+	}
+
+	public StreamingBlockParser (InputStream input, int maxTransactionSize)
+	{
+		this.input = new BufferedInputStream (input);
+		this.maxTransactionSize = maxTransactionSize;
+	}
+
+	public StreamingBlockParser (ReadableByteChannel channel)
+	{
+		this (Channels.newInputStream (channel));
+	}
+
+	/**
+	 * Parse the next block of the stream.
+	 *
+	 * @return header of the block parsed, null if the stream ended before it
+	 * @throws EOFException
+	 *             if the stream ends within a block
+	 * @throws IOException
+	 *             if the stream fails or a transaction exceeds the maximum size
+	 */
+	public Block parse (Listener listener) throws IOException
+	{
+		length = 0;
+		int first = input.read ();
+		if ( first < 0 )
+		{
+			return null;
+		}
+		scratch[length++] = (byte) first;
+		read (79);
+		Block header = Block.fromWireHeaderOnly (new WireFormat.Reader (scratch, 0, 80));
+
+		length = 0;
+		long n = readVarInt ();
+		listener.header (header, n);
+
+		long offset = 80 + length;
+		for ( int i = 0; i < n; ++i )
+		{
+			length = 0;
+			read (4);
+			long nin = readVarInt ();
+			for ( long j = 0; j < nin; ++j )
+			{
+				read (32 + 4);
+				read (readVarInt ());
+				read (4);
+			}
+			long nout = readVarInt ();
+			for ( long j = 0; j < nout; ++j )
+			{
+				read (8);
+				read (readVarInt ());
+			}
+			read (4);
+
+			// the scratch buffer is reused, the transaction keeps its own copy of the wire format
+			Transaction t = Transaction.fromWire (new WireFormat.Reader (Arrays.copyOf (scratch, length), 0, length));
+			t.setBinaryBlockHash (header.getBinaryHash ());
+			listener.transaction (t, i, offset);
+			offset += length;
+		}
+		listener.end (header);
+		return header;
+	}
+
+	// append n bytes of the stream to the scratch buffer
+	private void read (long n) throws IOException
+	{
+		if ( n < 0 || length + n > maxTransactionSize )
+		{
+			throw new IOException ("Transaction exceeds " + maxTransactionSize + " bytes");
+		}
+		int end = length + (int) n;
+		if ( end > scratch.length )
+		{
+			scratch = Arrays.copyOf (scratch, Math.min (Math.max (scratch.length * 2, end), maxTransactionSize));
+		}
+		while ( length < end )
+		{
+			int r = input.read (scratch, length, end - length);
+			if ( r < 0 )
+			{
+				throw new EOFException ("Stream ended within a block");
+			}
+			length += r;
+		}
+	}
+
+	private long readVarInt () throws IOException
+	{
+		int start = length;
+		read (1);
+		int first = scratch[start] & 0xff;
+		if ( first < 0xfd )
+		{
+			return first;
+		}
+		int size = first == 0xfd ? 2 : first == 0xfe ? 4 : 8;
+		read (size);
+		long n = 0;
+		for ( int i = size; i > 0; --i )
+		{
+			n = (n << 8) | (scratch[start + i] & 0xff);
+		}
+		return n;
+	}
+}
@@ -15,7 +15,12 @@
  */
 package com.bitsofproof.supernode.api;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -27,15 +32,28 @@ public class Transaction implements Serializable, Cloneable
 {
 	private static final long serialVersionUID = 690918485496086537L;
 
+	// hashes are serialized as hex strings, as they were before being stored binary
+	private static final ObjectStreamField[] serialPersistentFields = { new ObjectStreamField ("version", Long.TYPE),
+			new ObjectStreamField ("lockTime", Long.TYPE), new ObjectStreamField ("hash", String.class),
+			new ObjectStreamField ("blockHash", String.class), new ObjectStreamField ("inputs", List.class),
+			new ObjectStreamField ("outputs", List.class) };
+
 	private long version = 1;
 
 	private long lockTime = 0;
-	private String hash;
-	private String blockHash;
+	private Hash hash;
+	private Hash blockHash;
 
 	private List<TransactionInput> inputs;
 	private List<TransactionOutput> outputs;
 
+	// wire format the hash was computed from, null if not known or the transaction was modified since. A view of the
+	// decoded input or of the serialized bytes, its position is never changed.
+	private transient ByteBuffer wire;
+	// inputs and outputs the wire format was computed from, they invalidate it if modified
+	private transient TransactionInput[] wireInputs;
+	private transient TransactionOutput[] wireOutputs;
+
 	public long getVersion ()
 	{
 		return version;
@@ -43,10 +61,20 @@ public class Transaction implements Serializable, Cloneable
 
 	public String getBlockHash ()
 	{
-		return blockHash;
+		return blockHash == null ? null : blockHash.toString ();
 	}
 
 	public void setBlockHash (String blockHash)
+	{
+		this.blockHash = blockHash == null ? null : new Hash (blockHash);
+	}
+
+	public Hash getBinaryBlockHash ()
+	{
+		return blockHash;
+	}
+
+	public void setBinaryBlockHash (Hash blockHash)
 	{
 		this.blockHash = blockHash;
 	}
@@ -54,6 +82,7 @@ public class Transaction implements Serializable, Cloneable
 	public void setVersion (long version)
 	{
 		this.version = version;
+		invalidateWire ();
 	}
 
 	public long getLockTime ()
@@ -64,36 +93,51 @@ public class Transaction implements Serializable, Cloneable
 	public void setLockTime (long lockTime)
 	{
 		this.lockTime = lockTime;
+		invalidateWire ();
 	}
 
+	/**
+	 * Serialize and hash the transaction. The wire format is kept with the transaction and reused by toWire until the
+	 * transaction, one of its inputs or outputs or their lists are modified.
+	 */
 	public void computeHash ()
 	{
-		WireFormat.Writer writer = new WireFormat.Writer ();
-		toWire (writer);
-		WireFormat.Reader reader = new WireFormat.Reader (writer.toByteArray ());
-		hash = reader.hash ().toString ();
+		WireFormat.Writer writer = new WireFormat.Writer (computeWireSize ());
+		serialize (writer);
+		cacheWire (ByteBuffer.wrap (writer.toByteArray ()));
+		hash = writer.hash ();
 		if ( inputs != null )
 		{
 			for ( TransactionInput in : inputs )
 			{
-				in.setTransactionHash (hash);
+				in.setBinaryTransactionHash (hash);
 			}
 		}
 		if ( outputs != null )
 		{
 			for ( TransactionOutput out : outputs )
 			{
-				out.setTransactionHash (hash);
+				out.setBinaryTransactionHash (hash);
 			}
 		}
 	}
 
 	public String getHash ()
 	{
-		return hash;
+		return hash == null ? null : hash.toString ();
 	}
 
 	public void setHash (String hash)
+	{
+		this.hash = hash == null ? null : new Hash (hash);
+	}
+
+	public Hash getBinaryHash ()
+	{
+		return hash;
+	}
+
+	public void setBinaryHash (Hash hash)
 	{
 		this.hash = hash;
 	}
@@ -106,6 +150,7 @@ public class Transaction implements Serializable, Cloneable
 	public void setInputs (List<TransactionInput> inputs)
 	{
 		this.inputs = inputs;
+		invalidateWire ();
 	}
 
 	public List<TransactionOutput> getOutputs ()
@@ -116,9 +161,115 @@ public class Transaction implements Serializable, Cloneable
 	public void setOutputs (List<TransactionOutput> outputs)
 	{
 		this.outputs = outputs;
+		invalidateWire ();
+	}
+
+	private void cacheWire (ByteBuffer wire)
+	{
+		this.wire = wire;
+		wireInputs = inputs == null ? new TransactionInput[0] : inputs.toArray (new TransactionInput[inputs.size ()]);
+		for ( TransactionInput in : wireInputs )
+		{
+			in.setOwner (this);
+		}
+		wireOutputs = outputs == null ? new TransactionOutput[0] : outputs.toArray (new TransactionOutput[outputs.size ()]);
+		for ( TransactionOutput out : wireOutputs )
+		{
+			out.setOwner (this);
+		}
+	}
+
+	/**
+	 * drop the cached wire format, called by inputs and outputs of this transaction if modified
+	 */
+	void invalidateWire ()
+	{
+		wire = null;
+		wireInputs = null;
+		wireOutputs = null;
+	}
+
+	// the cached wire format if the lists still hold the same inputs and outputs, not taken over by an other transaction
+	private ByteBuffer getCachedWire ()
+	{
+		if ( wire == null )
+		{
+			return null;
+		}
+		int nin = inputs == null ? 0 : inputs.size ();
+		int nout = outputs == null ? 0 : outputs.size ();
+		boolean same = nin == wireInputs.length && nout == wireOutputs.length;
+		for ( int i = 0; same && i < nin; ++i )
+		{
+			TransactionInput in = inputs.get (i);
+			same = in == wireInputs[i] && in.getOwner () == this;
+		}
+		for ( int i = 0; same && i < nout; ++i )
+		{
+			TransactionOutput out = outputs.get (i);
+			same = out == wireOutputs[i] && out.getOwner () == this;
+		}
+		if ( !same )
+		{
+			invalidateWire ();
+		}
+		return wire;
+	}
+
+	public int getWireSize ()
+	{
+		ByteBuffer w = getCachedWire ();
+		if ( w != null )
+		{
+			return w.remaining ();
+		}
+		return computeWireSize ();
+	}
+
+	private int computeWireSize ()
+	{
+		int size = 4 + 4;
+		if ( inputs != null )
+		{
+			size += WireFormat.varIntSize (inputs.size ());
+			for ( TransactionInput input : inputs )
+			{
+				size += input.getWireSize ();
+			}
+		}
+		else
+		{
+			size += WireFormat.varIntSize (0);
+		}
+		if ( outputs != null )
+		{
+			size += WireFormat.varIntSize (outputs.size ());
+			for ( TransactionOutput output : outputs )
+			{
+				size += output.getWireSize ();
+			}
+		}
+		else
+		{
+			size += WireFormat.varIntSize (0);
+		}
+		return size;
 	}
 
 	public void toWire (WireFormat.Writer writer)
+	{
+		ByteBuffer w = getCachedWire ();
+		if ( w != null )
+		{
+			writer.writeBytes (w);
+		}
+		else
+		{
+			serialize (writer);
+		}
+	}
+
+	private void serialize (WireFormat.Writer writer)
 	{
 		writer.writeUint32 (version);
 		if ( inputs != null )
@@ -150,6 +301,10 @@ public class Transaction implements Serializable, Cloneable
 		writer.writeUint32 (lockTime);
 	}
 
+	/**
+	 * The transaction keeps a view of its wire format in the reader's input for toWire, so the input must not be modified
+	 * while the transaction is in use.
+	 */
 	public static Transaction fromWire (WireFormat.Reader reader)
 	{
 		Transaction t = new Transaction ();
@@ -187,33 +342,57 @@ public class Transaction implements Serializable, Cloneable
 
 		t.lockTime = reader.readUint32 ();
 
-		t.hash = reader.hash (cursor, reader.getCursor () - cursor).toString ();
+		t.cacheWire (reader.slice (cursor, reader.getCursor () - cursor));
+		t.hash = new Hash (Hash.hash (t.wire.duplicate ()));
 
 		if ( t.inputs != null )
 		{
 			for ( TransactionInput in : t.inputs )
 			{
-				in.setTransactionHash (t.hash);
+				in.setBinaryTransactionHash (t.hash);
 			}
 		}
 		if ( t.outputs != null )
 		{
 			for ( TransactionOutput out : t.outputs )
 			{
-				out.setTransactionHash (t.hash);
+				out.setBinaryTransactionHash (t.hash);
 			}
 		}
 		return t;
 	}
 
+	/**
+	 * move the reader's cursor past a transaction without decoding it
+	 */
+	static void skipWire (WireFormat.Reader reader)
+	{
+		reader.skipBytes (4);
+		long nin = reader.readVarInt ();
+		for ( long i = 0; i < nin; ++i )
+		{
+			reader.skipBytes (32 + 4);
+			reader.skipVarBytes ();
+			reader.skipBytes (4);
+		}
+		long nout = reader.readVarInt ();
+		for ( long i = 0; i < nout; ++i )
+		{
+			reader.skipBytes (8);
+			reader.skipVarBytes ();
+		}
+		reader.skipBytes (4);
+	}
+
 	public static Transaction fromWireDump (String dump)
 	{
-		return fromWire (new WireFormat.Reader (ByteUtils.fromHex (dump)));
+		byte[] wire = ByteUtils.fromHex (dump);
+		return fromWire (new WireFormat.Reader (wire, 0, wire.length));
 	}
 
 	public String toWireDump ()
 	{
-		WireFormat.Writer writer = new WireFormat.Writer ();
+		WireFormat.Writer writer = new WireFormat.Writer (getWireSize ());
 		toWire (writer);
 		return ByteUtils.toHex (writer.toByteArray ());
 	}
@@ -247,9 +426,36 @@ public class Transaction implements Serializable, Cloneable
 
 		t.blockHash = blockHash;
 
+		// a clone is taken to be modified
+		t.invalidateWire ();
+
 		return t;
 	}
 
+	private void writeObject (ObjectOutputStream out) throws IOException
+	{
+		ObjectOutputStream.PutField fields = out.putFields ();
+		fields.put ("version", version);
+		fields.put ("lockTime", lockTime);
+		fields.put ("hash", getHash ());
+		fields.put ("blockHash", getBlockHash ());
+		fields.put ("inputs", inputs);
+		fields.put ("outputs", outputs);
+		out.writeFields ();
+	}
+
+	@SuppressWarnings ("unchecked")
+	private void readObject (ObjectInputStream in) throws IOException, ClassNotFoundException
+	{
+		ObjectInputStream.GetField fields = in.readFields ();
+		version = fields.get ("version", 1L);
+		lockTime = fields.get ("lockTime", 0L);
+		setHash ((String) fields.get ("hash", null));
+		setBlockHash ((String) fields.get ("blockHash", null));
+		inputs = (List<TransactionInput>) fields.get ("inputs", null);
+		outputs = (List<TransactionOutput>) fields.get ("outputs", null);
+	}
+
 	public JSONObject toJSON () throws JSONException
 	{
 		JSONObject o = new JSONObject ();
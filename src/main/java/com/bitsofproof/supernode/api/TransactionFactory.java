@@ -12,7 +12,7 @@ public class TransactionFactory
 		coinbase.setLockTime (0);
 
 		TransactionInput input = new TransactionInput ();
-		input.setSourceHash (Hash.ZERO_HASH_STRING);
+		input.setBinarySourceHash (Hash.ZERO_HASH);
 		input.setSequence (0xFFFFFFFFL);
 
 		ScriptFormat.Writer writer = new ScriptFormat.Writer ();
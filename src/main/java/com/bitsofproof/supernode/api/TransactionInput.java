@@ -15,6 +15,10 @@
  */
 package com.bitsofproof.supernode.api;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 
 import org.json.JSONException;
@@ -24,30 +28,58 @@ public class TransactionInput implements Serializable, Cloneable
 {
 	private static final long serialVersionUID = -7019826355856117874L;
 
-	private String sourceHash;
+	// hashes are serialized as hex strings, as they were before being stored binary
+	private static final ObjectStreamField[] serialPersistentFields = { new ObjectStreamField ("sourceHash", String.class),
+			new ObjectStreamField ("ix", Long.TYPE), new ObjectStreamField ("sequence", Long.TYPE), new ObjectStreamField ("script", byte[].class),
+			new ObjectStreamField ("transactionHash", String.class) };
+
+	private Hash sourceHash;
 	private long ix;
 	private long sequence = 0xFFFFFFFFL;
 	private byte[] script;
-	private String transactionHash;
+	private Hash transactionHash;
+	private transient Transaction owner;
 
 	public String getTransactionHash ()
 	{
-		return transactionHash;
+		return transactionHash == null ? null : transactionHash.toString ();
 	}
 
 	public void setTransactionHash (String transactionHash)
+	{
+		this.transactionHash = transactionHash == null ? null : new Hash (transactionHash);
+	}
+
+	public Hash getBinaryTransactionHash ()
+	{
+		return transactionHash;
+	}
+
+	public void setBinaryTransactionHash (Hash transactionHash)
 	{
 		this.transactionHash = transactionHash;
 	}
 
 	public String getSourceHash ()
 	{
-		return sourceHash;
+		return sourceHash == null ? null : sourceHash.toString ();
 	}
 
 	public void setSourceHash (String sourceHash)
+	{
+		this.sourceHash = sourceHash == null ? null : new Hash (sourceHash);
+		modified ();
+	}
+
+	public Hash getBinarySourceHash ()
+	{
+		return sourceHash;
+	}
+
+	public void setBinarySourceHash (Hash sourceHash)
 	{
 		this.sourceHash = sourceHash;
+		modified ();
 	}
 
 	public long getIx ()
@@ -58,6 +90,7 @@ public class TransactionInput implements Serializable, Cloneable
 	public void setIx (long ix)
 	{
 		this.ix = ix;
+		modified ();
 	}
 
 	public long getSequence ()
@@ -68,6 +101,7 @@ public class TransactionInput implements Serializable, Cloneable
 	public void setSequence (long sequence)
 	{
 		this.sequence = sequence;
+		modified ();
 	}
 
 	public byte[] getScript ()
@@ -92,18 +126,47 @@ public class TransactionInput implements Serializable, Cloneable
 		{
 			this.script = null;
 		}
+		modified ();
+	}
+
+	Transaction getOwner ()
+	{
+		return owner;
+	}
+
+	/**
+	 * transaction whose cached wire format includes this, notified of modifications
+	 */
+	void setOwner (Transaction owner)
+	{
+		this.owner = owner;
+	}
+
+	private void modified ()
+	{
+		Transaction o = owner;
+		if ( o != null )
+		{
+			owner = null;
+			o.invalidateWire ();
+		}
+	}
+
+	public int getWireSize ()
+	{
+		return 32 + 4 + WireFormat.varIntSize (script.length) + script.length + 4;
 	}
 
 	public void toWire (WireFormat.Writer writer)
 	{
-		if ( sourceHash != null && !sourceHash.equals (Hash.ZERO_HASH.toString ()) )
+		if ( sourceHash != null && !sourceHash.equals (Hash.ZERO_HASH) )
 		{
-			writer.writeHash (new Hash (sourceHash));
+			writer.writeHash (sourceHash);
 			writer.writeUint32 (ix);
 		}
 		else
 		{
-			writer.writeBytes (Hash.ZERO_HASH.toByteArray ());
+			writer.writeHash (Hash.ZERO_HASH);
 			writer.writeUint32 (-1);
 		}
 		writer.writeVarBytes (script);
@@ -114,7 +177,7 @@ public class TransactionInput implements Serializable, Cloneable
 	{
 		TransactionInput i = new TransactionInput ();
 
-		i.sourceHash = reader.readHash ().toString ();
+		i.sourceHash = reader.readHash ();
 		i.ix = reader.readUint32 ();
 		i.script = reader.readVarBytes ();
 		i.sequence = reader.readUint32 ();
@@ -126,6 +189,7 @@ public class TransactionInput implements Serializable, Cloneable
 	public TransactionInput clone () throws CloneNotSupportedException
 	{
 		TransactionInput i = (TransactionInput) super.clone ();
+		i.owner = null;
 
 		i.sourceHash = sourceHash;
 		i.ix = ix;
@@ -140,10 +204,31 @@ public class TransactionInput implements Serializable, Cloneable
 		return i;
 	}
 
+	private void writeObject (ObjectOutputStream out) throws IOException
+	{
+		ObjectOutputStream.PutField fields = out.putFields ();
+		fields.put ("sourceHash", getSourceHash ());
+		fields.put ("ix", ix);
+		fields.put ("sequence", sequence);
+		fields.put ("script", script);
+		fields.put ("transactionHash", getTransactionHash ());
+		out.writeFields ();
+	}
+
+	private void readObject (ObjectInputStream in) throws IOException, ClassNotFoundException
+	{
+		ObjectInputStream.GetField fields = in.readFields ();
+		setSourceHash ((String) fields.get ("sourceHash", null));
+		ix = fields.get ("ix", 0L);
+		sequence = fields.get ("sequence", 0xFFFFFFFFL);
+		script = (byte[]) fields.get ("script", null);
+		setTransactionHash ((String) fields.get ("transactionHash", null));
+	}
+
 	public JSONObject toJSON () throws JSONException
 	{
 		JSONObject o = new JSONObject ();
-		o.put ("sourceHash", sourceHash);
+		o.put ("sourceHash", getSourceHash ());
 		o.put ("sourceIx", ix);
 		try
 		{
@@ -161,7 +246,7 @@ public class TransactionInput implements Serializable, Cloneable
 	{
 		TransactionInput in = new TransactionInput ();
 		in.ix = o.getLong ("sourceIx");
-		in.sourceHash = o.getString ("sourceHash");
+		in.setSourceHash (o.getString ("sourceHash"));
 		in.sequence = o.getLong ("sequence");
 		in.script = ScriptFormat.fromReadable (o.getString ("script"));
 		return in;
@@ -15,6 +15,10 @@
  */
 package com.bitsofproof.supernode.api;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 
 import org.json.JSONException;
@@ -24,16 +28,31 @@ public class TransactionOutput implements Serializable, Cloneable
 {
 	private static final long serialVersionUID = 3028618872354766234L;
 
+	// hashes are serialized as hex strings, as they were before being stored binary
+	private static final ObjectStreamField[] serialPersistentFields = { new ObjectStreamField ("value", Long.TYPE),
+			new ObjectStreamField ("script", byte[].class), new ObjectStreamField ("transactionHash", String.class) };
+
 	private long value;
 	private byte[] script;
-	private String transactionHash;
+	private Hash transactionHash;
+	private transient Transaction owner;
 
 	public String getTransactionHash ()
 	{
-		return transactionHash;
+		return transactionHash == null ? null : transactionHash.toString ();
 	}
 
 	public void setTransactionHash (String transactionHash)
+	{
+		this.transactionHash = transactionHash == null ? null : new Hash (transactionHash);
+	}
+
+	public Hash getBinaryTransactionHash ()
+	{
+		return transactionHash;
+	}
+
+	public void setBinaryTransactionHash (Hash transactionHash)
 	{
 		this.transactionHash = transactionHash;
 	}
@@ -46,6 +65,7 @@ public class TransactionOutput implements Serializable, Cloneable
 	public void setValue (long value)
 	{
 		this.value = value;
+		modified ();
 	}
 
 	public byte[] getScript ()
@@ -70,6 +90,35 @@ public class TransactionOutput implements Serializable, Cloneable
 		{
 			this.script = null;
 		}
+		modified ();
+	}
+
+	Transaction getOwner ()
+	{
+		return owner;
+	}
+
+	/**
+	 * transaction whose cached wire format includes this, notified of modifications
+	 */
+	void setOwner (Transaction owner)
+	{
+		this.owner = owner;
+	}
+
+	private void modified ()
+	{
+		Transaction o = owner;
+		if ( o != null )
+		{
+			owner = null;
+			o.invalidateWire ();
+		}
+	}
+
+	public int getWireSize ()
+	{
+		return 8 + WireFormat.varIntSize (script.length) + script.length;
 	}
 
 	public void toWire (WireFormat.Writer writer)
@@ -90,6 +139,7 @@ public class TransactionOutput implements Serializable, Cloneable
 	public TransactionOutput clone () throws CloneNotSupportedException
 	{
 		TransactionOutput o = (TransactionOutput) super.clone ();
+		o.owner = null;
 		o.value = value;
 		if ( script != null )
 		{
@@ -101,6 +151,23 @@ public class TransactionOutput implements Serializable, Cloneable
 
 	}
 
+	private void writeObject (ObjectOutputStream out) throws IOException
+	{
+		ObjectOutputStream.PutField fields = out.putFields ();
+		fields.put ("value", value);
+		fields.put ("script", script);
+		fields.put ("transactionHash", getTransactionHash ());
+		out.writeFields ();
+	}
+
+	private void readObject (ObjectInputStream in) throws IOException, ClassNotFoundException
+	{
+		ObjectInputStream.GetField fields = in.readFields ();
+		value = fields.get ("value", 0L);
+		script = (byte[]) fields.get ("script", null);
+		setTransactionHash ((String) fields.get ("transactionHash", null));
+	}
+
 	public JSONObject toJSON ()
 	{
 		JSONObject o = new JSONObject ();
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2012 Tamas Blummer tamas@bitsofproof.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitsofproof.supernode.api;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Verifies the scripts of all inputs of a transaction against the outputs they spend. Inputs are split into contiguous
+ * ranges evaluated in parallel, each range with its own copy of a shared signature hash calculator. Verification stops
+ * at the first invalid input, inputs not evaluated thereafter are reported as such.
+ */
+public class TransactionVerifier
+{
+	public static enum Status
+	{
+		VALID, INVALID, NOT_EVALUATED
+	}
+
+	public static class Result
+	{
+		private final Status[] status;
+		private final int firstInvalid;
+
+		private Result (Status[] status)
+		{
+			this.status = status;
+			int f = -1;
+			for ( int i = 0; i < status.length && f < 0; ++i )
+			{
+				if ( status[i] == Status.INVALID )
+				{
+					f = i;
+				}
+			}
+			firstInvalid = f;
+		}
+
+		public boolean isValid ()
+		{
+			for ( Status s : status )
+			{
+				if ( s != Status.VALID )
+				{
+					return false;
+				}
+			}
+			return true;
+		}
+
+		public Status getStatus (int inr)
+		{
+			return status[inr];
+		}
+
+		/**
+		 * @return index of the first input found invalid, -1 if none
+		 */
+		public int getFirstInvalid ()
+		{
+			return firstInvalid;
+		}
+	}
+
+	private final ExecutorService executor;
+	private final int parallelism;
+	private final boolean bip16;
+
+	/**
+	 * verifier on the calling thread
+	 */
+	public TransactionVerifier (boolean bip16)
+	{
+		this (null, 1, bip16);
+	}
+
+	/**
+	 * @param executor
+	 *            executor of verification tasks, null to verify on the calling thread
+	 * @param parallelism
+	 *            number of ranges inputs are split into, one of them is evaluated on the calling thread
+	 * @param bip16
+	 *            evaluate pay to script hash redeem scripts
+	 */
+	public TransactionVerifier (ExecutorService executor, int parallelism, boolean bip16)
+	{
+		this.executor = executor;
+		this.parallelism = executor == null ? 1 : Math.max (1, parallelism);
+		this.bip16 = bip16;
+	}
+
+	/**
+	 * @param transaction
+	 *            transaction to verify
+	 * @param spent
+	 *            outputs spent by the inputs, in the order of the inputs
+	 */
+	public Result verify (Transaction transaction, List<TransactionOutput> spent)
+	{
+		List<TransactionInput> inputs = transaction.getInputs ();
+		int n = inputs == null ? 0 : inputs.size ();
+		if ( spent.size () != n )
+		{
+			throw new IllegalArgumentException ("Need an output for each of " + n + " inputs");
+		}
+		final byte[][] scripts = new byte[n][];
+		for ( int i = 0; i < n; ++i )
+		{
+			scripts[i] = spent.get (i).getScript ();
+		}
+		final Status[] status = new Status[n];
+		Arrays.fill (status, Status.NOT_EVALUATED);
+		final AtomicBoolean failed = new AtomicBoolean (false);
+		final SignatureHash signatureHash = new SignatureHash (transaction);
+
+		if ( n > 0 )
+		{
+			int ranges = Math.min (parallelism, n);
+			final int chunk = (n + ranges - 1) / ranges;
+			// copies are taken before the calling thread starts to use the shared calculator
+			final SignatureHash[] signatureHashes = new SignatureHash[ranges];
+			for ( int r = 0; r < ranges; ++r )
+			{
+				signatureHashes[r] = r == 0 ? signatureHash : new SignatureHash (signatureHash);
+			}
+			Parallel.run (n, chunk, executor, new Parallel.Range<RuntimeException> ()
+			{
+				@Override
+				public void run (int from, int to)
+				{
+					try
+					{
+						verify (signatureHashes[from / chunk], scripts, from, to, status, failed);
+					}
+					catch ( RuntimeException e )
+					{
+						// ranges already running stop too, those not started are cancelled
+						failed.set (true);
+						throw e;
+					}
+				}
+			});
+		}
+		return new Result (status);
+	}
+
+	private void verify (SignatureHash signatureHash, byte[][] scripts, int from, int to, Status[] status, AtomicBoolean failed)
+	{
+		for ( int i = from; i < to && !failed.get (); ++i )
+		{
+			if ( new ScriptEvaluator (signatureHash, i).evaluate (scripts[i], bip16) )
+			{
+				status[i] = Status.VALID;
+			}
+			else
+			{
+				status[i] = Status.INVALID;
+				failed.set (true);
+			}
+		}
+	}
+}
@@ -16,10 +16,13 @@
 package com.bitsofproof.supernode.api;
 
 import java.io.ByteArrayOutputStream;
-import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+import java.util.Arrays;
 
 public class WireFormat
 {
@@ -34,13 +37,32 @@ public class WireFormat
 
 	public static class Reader
 	{
-		private final byte[] bytes;
+		// little endian view of the input, cursor and offsets are relative to its start
+		private final ByteBuffer buffer;
 		private int cursor;
 
+		/**
+		 * Read a private copy of the array
+		 */
 		public Reader (byte[] s)
 		{
-			this.bytes = new byte[s.length];
-			System.arraycopy (s, 0, this.bytes, 0, s.length);
+			this (Arrays.copyOf (s, s.length), 0, s.length);
+		}
+
+		/**
+		 * Read a slice of the array in place, the array must not be modified while the reader is in use
+		 */
+		public Reader (byte[] s, int offset, int length)
+		{
+			this (ByteBuffer.wrap (s, offset, length));
+		}
+
+		/**
+		 * Read the remaining content of a heap, direct or mapped buffer in place. The position of the buffer is not changed.
+		 */
+		public Reader (ByteBuffer buffer)
+		{
+			this.buffer = buffer.slice ().order (ByteOrder.LITTLE_ENDIAN);
 			this.cursor = 0;
 		}
 
@@ -49,55 +71,50 @@ public class WireFormat
 			return cursor;
 		}
 
+		public int length ()
+		{
+			return buffer.limit ();
+		}
+
 		public boolean eof ()
 		{
-			return cursor >= bytes.length;
+			return cursor >= buffer.limit ();
 		}
 
 		public byte[] readRest ()
 		{
-			byte[] rest = new byte[bytes.length - cursor];
-			System.arraycopy (bytes, cursor, rest, 0, bytes.length - cursor);
-			cursor = bytes.length;
-			return rest;
+			return readBytes (buffer.limit () - cursor);
 		}
 
 		public int readByte ()
 		{
-			return bytes[cursor++] & 0xff;
+			return buffer.get (cursor++) & 0xff;
 		}
 
 		public long readUint16 ()
 		{
-			long value = ((bytes[cursor] & 0xFFL) << 0) | ((bytes[cursor + 1] & 0xFFL) << 8);
+			long value = buffer.getShort (cursor) & 0xFFFFL;
 			cursor += 2;
 			return value;
 		}
 
 		public long readUint32 ()
 		{
-			long value =
-					((bytes[cursor] & 0xFFL) << 0) | ((bytes[cursor + 1] & 0xFFL) << 8) | ((bytes[cursor + 2] & 0xFFL) << 16)
-							| ((bytes[cursor + 3] & 0xFFL) << 24);
+			long value = buffer.getInt (cursor) & 0xFFFFFFFFL;
 			cursor += 4;
 			return value;
 		}
 
 		public long readUint64 ()
 		{
-			long value =
-					((bytes[cursor] & 0xFFL) << 0)
-							| ((bytes[cursor + 1] & 0xFFL) << 8)
-							| ((bytes[cursor + 2] & 0xFFL) << 16)
-							| ((bytes[cursor + 3] & 0xFFL) << 24 | ((bytes[cursor + 4] & 0xFFL) << 32) | ((bytes[cursor + 5] & 0xFFL) << 40)
-									| ((bytes[cursor + 6] & 0xFFL) << 48) | ((bytes[cursor + 7] & 0xFFL) << 56));
+			long value = buffer.getLong (cursor);
 			cursor += 8;
 			return value;
 		}
 
 		public long readVarInt ()
 		{
-			int flag = 0xff & bytes[cursor++];
+			int flag = readByte ();
 			long value;
 			if ( flag < 0xfd )
 			{
@@ -120,29 +137,104 @@ public class WireFormat
 
 		public void skipBytes (int length)
 		{
+			if ( length < 0 || length > buffer.limit () - cursor )
+			{
+				throw new IndexOutOfBoundsException ("Can not skip " + length + " bytes at " + cursor + " of " + buffer.limit ());
+			}
 			cursor += length;
 		}
 
+		public void skipVarBytes ()
+		{
+			skipBytes (readVarLength ());
+		}
+
 		public byte[] readBytes (int length)
 		{
+			byte[] b = getBytes (cursor, length);
+			cursor += length;
+			return b;
+		}
+
+		/**
+		 * copy of a range of the input, independent of the cursor
+		 */
+		public byte[] getBytes (int offset, int length)
+		{
+			checkRange (offset, length);
 			byte[] b = new byte[length];
 			if ( length > 0 )
 			{
-				System.arraycopy (bytes, cursor, b, 0, length);
-				cursor += length;
+				if ( buffer.hasArray () )
+				{
+					System.arraycopy (buffer.array (), buffer.arrayOffset () + offset, b, 0, length);
+				}
+				else
+				{
+					ByteBuffer d = buffer.duplicate ();
+					d.position (offset);
+					d.get (b);
+				}
 			}
 			return b;
 		}
 
+		private void checkRange (int offset, int length)
+		{
+			if ( offset < 0 || length < 0 || offset > buffer.limit () - length )
+			{
+				throw new IndexOutOfBoundsException ("Can not read " + length + " bytes at " + offset + " of " + buffer.limit ());
+			}
+		}
+
+		/**
+		 * view of a range of the input, independent of the cursor
+		 */
+		public ByteBuffer slice (int offset, int length)
+		{
+			checkRange (offset, length);
+			ByteBuffer d = buffer.duplicate ();
+			d.limit (offset + length);
+			d.position (offset);
+			return d.slice ();
+		}
+
+		/**
+		 * reader over the next length bytes, without copying them
+		 */
+		public Reader readSlice (int length)
+		{
+			Reader r = new Reader (slice (cursor, length));
+			cursor += length;
+			return r;
+		}
+
+		public Reader readVarSlice ()
+		{
+			return readSlice (readVarLength ());
+		}
+
+		// a length prefix is checked against the remaining input before anything is allocated for it
+		private int readVarLength ()
+		{
+			long len = readVarInt ();
+			if ( len < 0 || len > buffer.limit () - cursor )
+			{
+				throw new IndexOutOfBoundsException ("Can not read " + len + " bytes at " + cursor + " of " + buffer.limit ());
+			}
+			return (int) len;
+		}
+
 		public Hash readHash ()
 		{
-			return new Hash (readBytes (32));
+			Hash h = Hash.fromBuffer (buffer, cursor);
+			cursor += 32;
+			return h;
 		}
 
 		public byte[] readVarBytes ()
 		{
-			long len = readVarInt ();
-			return readBytes ((int) len);
+			return readBytes (readVarLength ());
 		}
 
 		public String readString ()
@@ -185,14 +277,30 @@ public class WireFormat
 			}
 		}
 
+		void digest (MessageDigest digest, int offset, int length)
+		{
+			if ( buffer.hasArray () )
+			{
+				digest.update (buffer.array (), buffer.arrayOffset () + offset, length);
+			}
+			else
+			{
+				digest.update (slice (offset, length));
+			}
+		}
+
 		public Hash hash (int offset, int length)
 		{
-			return new Hash (Hash.hash (bytes, offset, length));
+			if ( buffer.hasArray () )
+			{
+				return new Hash (Hash.hash (buffer.array (), buffer.arrayOffset () + offset, length));
+			}
+			return new Hash (Hash.hash (slice (offset, length)));
 		}
 
 		public Hash hash ()
 		{
-			return hash (0, bytes.length);
+			return hash (0, buffer.limit ());
 		}
 
 		public Address readAddress (long version, boolean versionMessage)
@@ -211,7 +319,7 @@ public class WireFormat
 			catch ( UnknownHostException e )
 			{
 			}
-			address.port = ((bytes[cursor + 1] & 0xFFL) << 0) | ((bytes[cursor] & 0xFFL) << 8);
+			address.port = ((buffer.get (cursor + 1) & 0xFFL) << 0) | ((buffer.get (cursor) & 0xFFL) << 8);
 			cursor += 2;
 			return address;
 		}
@@ -219,122 +327,275 @@ public class WireFormat
 
 	public static class Writer
 	{
+		private static final int DEFAULT_CAPACITY = 256;
+		// larger buffers are not kept in the pool, so a thread that once wrote a big block does not hold on to it
+		private static final int MAX_POOLED_CAPACITY = 2 * 1024 * 1024;
+		private static final ThreadLocal<ByteBuffer> pool = new ThreadLocal<ByteBuffer> ();
+
+		// legacy sink, null if writing into a buffer
 		private final ByteArrayOutputStream bs;
+		private ByteBuffer buffer;
+		private final int start;
+		// buffer is allocated and grown by this writer
+		private final boolean owned;
+		private boolean pooled;
 
 		public Writer ()
 		{
-			this.bs = new ByteArrayOutputStream ();
+			this (DEFAULT_CAPACITY);
+		}
+
+		/**
+		 * Write into an own buffer of initial capacity, that grows if needed.
+		 */
+		public Writer (int capacity)
+		{
+			this.bs = null;
+			this.buffer = ByteBuffer.allocate (capacity);
+			this.start = 0;
+			this.owned = true;
 		}
 
 		public Writer (ByteArrayOutputStream bs)
 		{
 			this.bs = bs;
+			this.start = 0;
+			this.owned = false;
+		}
+
+		/**
+		 * Write straight into the caller's buffer starting at its position. The position is advanced with every write, a
+		 * BufferOverflowException is thrown if the buffer is too small.
+		 */
+		public Writer (ByteBuffer target)
+		{
+			this.bs = null;
+			this.buffer = target;
+			this.start = target.position ();
+			this.owned = false;
+		}
+
+		/**
+		 * A writer using the calling thread's reusable buffer. Call release () once done with the writer and anything
+		 * it returned, so the buffer can be reused. A writer not released just does not return its buffer to the pool.
+		 */
+		public static Writer pooled ()
+		{
+			ByteBuffer b = pool.get ();
+			Writer writer;
+			if ( b != null )
+			{
+				pool.remove ();
+				b.clear ();
+				writer = new Writer (b, true);
+			}
+			else
+			{
+				writer = new Writer (ByteBuffer.allocate (DEFAULT_CAPACITY), true);
+			}
+			writer.pooled = true;
+			return writer;
+		}
+
+		private Writer (ByteBuffer buffer, boolean owned)
+		{
+			this.bs = null;
+			this.buffer = buffer;
+			this.start = 0;
+			this.owned = owned;
+		}
+
+		public void release ()
+		{
+			if ( pooled )
+			{
+				pooled = false;
+				if ( buffer.capacity () <= MAX_POOLED_CAPACITY )
+				{
+					pool.set (buffer);
+				}
+				buffer = null;
+			}
+		}
+
+		public int size ()
+		{
+			if ( bs != null )
+			{
+				return bs.size ();
+			}
+			return buffer.position () - start;
 		}
 
 		public byte[] toByteArray ()
 		{
-			return bs.toByteArray ();
+			if ( bs != null )
+			{
+				return bs.toByteArray ();
+			}
+			// an exactly sized own buffer is handed out without copy, further writes would grow into a new one
+			if ( owned && !pooled && buffer.position () == buffer.capacity () )
+			{
+				return buffer.array ();
+			}
+			byte[] b = new byte[size ()];
+			if ( buffer.hasArray () )
+			{
+				System.arraycopy (buffer.array (), buffer.arrayOffset () + start, b, 0, b.length);
+			}
+			else
+			{
+				ByteBuffer d = buffer.duplicate ();
+				d.flip ();
+				d.position (start);
+				d.get (b);
+			}
+			return b;
+		}
+
+		/**
+		 * double SHA256 hash of the content written so far
+		 */
+		public Hash hash ()
+		{
+			if ( bs != null )
+			{
+				return new Hash (Hash.hash (bs.toByteArray ()));
+			}
+			if ( buffer.hasArray () )
+			{
+				return new Hash (Hash.hash (buffer.array (), buffer.arrayOffset () + start, size ()));
+			}
+			ByteBuffer d = buffer.duplicate ();
+			d.flip ();
+			d.position (start);
+			return new Hash (Hash.hash (d));
+		}
+
+		private void ensure (int n)
+		{
+			if ( owned && buffer.remaining () < n )
+			{
+				ByteBuffer b = ByteBuffer.allocate (Math.max (buffer.capacity () * 2, buffer.position () + n));
+				buffer.flip ();
+				b.put (buffer);
+				buffer = b;
+			}
+		}
+
+		private void writeLittleEndian (long n, int length)
+		{
+			if ( bs != null )
+			{
+				for ( int i = 0; i < length; ++i )
+				{
+					bs.write ((int) (0xFF & (n >> (i * 8))));
+				}
+			}
+			else
+			{
+				ensure (length);
+				for ( int i = 0; i < length; ++i )
+				{
+					buffer.put ((byte) (0xFF & (n >> (i * 8))));
+				}
+			}
+		}
+
+		private void write (byte[] b, int offset, int length)
+		{
+			if ( bs != null )
+			{
+				bs.write (b, offset, length);
+			}
+			else
+			{
+				ensure (length);
+				buffer.put (b, offset, length);
+			}
 		}
 
 		public void writeByte (int n)
 		{
-			bs.write (n);
+			writeLittleEndian (n, 1);
 		}
 
 		public void writeUint16 (long n)
 		{
-			bs.write ((int) (0xFF & n));
-			bs.write ((int) (0xFF & (n >> 8)));
+			writeLittleEndian (n, 2);
 		}
 
 		public void writeUint32 (long n)
 		{
-			bs.write ((int) (0xFF & n));
-			bs.write ((int) (0xFF & (n >> 8)));
-			bs.write ((int) (0xFF & (n >> 16)));
-			bs.write ((int) (0xFF & (n >> 24)));
+			writeLittleEndian (n, 4);
 		}
 
 		public void writeUint64 (long n)
 		{
-			bs.write ((int) (0xFF & n));
-			bs.write ((int) (0xFF & (n >> 8)));
-			bs.write ((int) (0xFF & (n >> 16)));
-			bs.write ((int) (0xFF & (n >> 24)));
-			bs.write ((int) (0xFF & (n >> 32)));
-			bs.write ((int) (0xFF & (n >> 40)));
-			bs.write ((int) (0xFF & (n >> 48)));
-			bs.write ((int) (0xFF & (n >> 56)));
+			writeLittleEndian (n, 8);
 		}
 
 		public void writeVarInt (long n)
 		{
 			if ( isLessThanUnsigned (n, 0xfdl) )
 			{
-				bs.write ((int) (0xFF & n));
+				writeByte ((int) (0xFF & n));
 			}
 			else if ( isLessThanUnsigned (n, 65536) )
 			{
-				bs.write (0xfd);
+				writeByte (0xfd);
 				writeUint16 (n);
 			}
-			else if ( isLessThanUnsigned (n, 4294967295L) )
+			else if ( isLessThanUnsigned (n, 0x100000000L) )
 			{
-				bs.write (0xfe);
+				writeByte (0xfe);
 				writeUint32 (n);
 			}
 			else
 			{
-				bs.write (0xff);
-				byte[] b = new byte[4];
-				b[0] = (byte) (n & 0xff);
-				b[1] = (byte) ((n >> 8) & 0xff);
-				b[2] = (byte) ((n >> 16) & 0xff);
-				b[3] = (byte) ((n >> 24) & 0xff);
-				try
-				{
-					bs.write (b);
-				}
-				catch ( IOException e )
-				{
-				}
+				writeByte (0xff);
+				writeUint64 (n);
 			}
 		}
 
 		public void writeBytes (byte[] b)
 		{
-			try
+			write (b, 0, b.length);
+		}
+
+		/**
+		 * write the remaining content of the buffer, the position of the buffer is not changed
+		 */
+		public void writeBytes (ByteBuffer b)
+		{
+			if ( b.hasArray () )
 			{
-				bs.write (b);
+				write (b.array (), b.arrayOffset () + b.position (), b.remaining ());
 			}
-			catch ( IOException e )
+			else if ( bs != null )
+			{
+				byte[] copy = new byte[b.remaining ()];
+				b.duplicate ().get (copy);
+				bs.write (copy, 0, copy.length);
+			}
+			else
 			{
+				ensure (b.remaining ());
+				buffer.put (b.duplicate ());
 			}
 		}
 
 		public void writeHash (Hash h)
 		{
-			try
-			{
-				bs.write (h.toByteArray ());
-			}
-			catch ( IOException e )
-			{
-			}
+			h.toWire (this);
 		}
 
 		public void writeVarBytes (byte[] b)
 		{
 			writeVarInt (b.length);
-			try
-			{
-				if ( b.length > 0 )
-				{
-					bs.write (b);
-				}
-			}
-			catch ( IOException e )
+			if ( b.length > 0 )
 			{
+				writeBytes (b);
 			}
 		}
 
@@ -381,9 +642,29 @@ public class WireFormat
 				writeUint16 (0xffffl);
 			}
 			writeBytes (a);
-			bs.write ((int) (0xFF & (address.port >> 8)));
-			bs.write ((int) (0xFF & address.port));
+			writeByte ((int) (0xFF & (address.port >> 8)));
+			writeByte ((int) (0xFF & address.port));
+		}
+	}
+
+	/**
+	 * number of bytes writeVarInt uses for n
+	 */
+	public static int varIntSize (long n)
+	{
+		if ( isLessThanUnsigned (n, 0xfdl) )
+		{
+			return 1;
+		}
+		if ( isLessThanUnsigned (n, 65536) )
+		{
+			return 3;
+		}
+		if ( isLessThanUnsigned (n, 0x100000000L) )
+		{
+			return 5;
 		}
+		return 9;
 	}
 
 	private static boolean isLessThanUnsigned (long n1, long n2)
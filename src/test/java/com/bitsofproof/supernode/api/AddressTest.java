@@ -15,12 +15,16 @@
  */
 package com.bitsofproof.supernode.api;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.io.UnsupportedEncodingException;
 import java.math.BigInteger;
 import java.security.SecureRandom;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 import org.junit.Test;
 
@@ -37,6 +41,37 @@ public class AddressTest
 			BigInteger n = new BigInteger (160, rnd);
 			assertTrue (new BigInteger (AddressConverter.fromBase58 (AddressConverter.toBase58 (n.toByteArray ()))).equals (n));
 		}
+		for ( int i = 0; i < 1000; ++i )
+		{
+			byte[] b = new byte[rnd.nextInt (50)];
+			rnd.nextBytes (b);
+			for ( int j = 0; j < b.length && rnd.nextBoolean (); ++j )
+			{
+				b[j] = 0;
+			}
+			String s = AddressConverter.toBase58 (b);
+			assertTrue (s.length () <= Base58.maxEncodedLength (b.length));
+			assertTrue (Arrays.equals (Base58.decode (s), b));
+		}
+		for ( String invalid : new String[] { "1O", "0abc", "abcl", "abcI", "ab c", "ab\u00e9" } )
+		{
+			try
+			{
+				AddressConverter.fromBase58 (invalid);
+				assertTrue (false);
+			}
+			catch ( ValidationException e )
+			{
+			}
+		}
+		try
+		{
+			Base58.decode ("zzzzzz", new byte[4], 0);
+			assertTrue (false);
+		}
+		catch ( ValidationException e )
+		{
+		}
 	}
 
 	@Test
@@ -53,4 +88,106 @@ public class AddressTest
 			assertTrue (Arrays.equals (check, keyDigest));
 		}
 	}
+
+	@Test
+	public void addressCacheTest () throws ValidationException
+	{
+		SecureRandom rnd = new SecureRandom ();
+		byte[] hash = new byte[20];
+		rnd.nextBytes (hash);
+		Address address = new Address (chain.getAddressFlag (), hash);
+		assertTrue (Arrays.equals (address.getHash (), hash));
+		assertEquals (chain.getAddressFlag (), address.getVersion ());
+		assertFalse (address.isMultisig (chain));
+
+		String s = address.toSatoshiStyle ();
+		assertEquals (s, AddressConverter.toSatoshiStyle (hash, false, chain));
+		Address parsed = Address.fromSatoshiStyle (s);
+		assertEquals (address, parsed);
+		assertEquals (address.hashCode (), parsed.hashCode ());
+		assertFalse (address.equals (new Address (chain.getMultisigAddressFlag (), hash)));
+		hash[19] ^= 1;
+		assertFalse (address.equals (new Address (chain.getAddressFlag (), hash)));
+		hash[19] ^= 1;
+
+		long hits = AddressConverter.getDecodedAddressCache ().getHits ();
+		assertTrue (Arrays.equals (AddressConverter.fromSatoshiStyle (s, chain), hash));
+		assertTrue (AddressConverter.getDecodedAddressCache ().getHits () > hits);
+		hits = AddressConverter.getEncodedAddressCache ().getHits ();
+		assertEquals (s, AddressConverter.toSatoshiStyle (hash, false, chain));
+		assertTrue (AddressConverter.getEncodedAddressCache ().getHits () > hits);
+
+		// a corrupted string is not found in the cache
+		char[] c = s.toCharArray ();
+		c[c.length - 1] = c[c.length - 1] == 'z' ? 'y' : 'z';
+		try
+		{
+			Address.fromSatoshiStyle (new String (c));
+			assertTrue (false);
+		}
+		catch ( ValidationException e )
+		{
+		}
+		try
+		{
+			Address.fromSatoshiStyle (AddressConverter.toSatoshiStyle (new byte[19], false, chain));
+			assertTrue (false);
+		}
+		catch ( ValidationException e )
+		{
+		}
+	}
+
+	@Test
+	public void addressScriptsTest () throws ValidationException
+	{
+		SecureRandom rnd = new SecureRandom ();
+		int n = AddressScripts.PARALLEL_THRESHOLD + 100;
+		List<String> addresses = new ArrayList<String> ();
+		List<byte[]> hashes = new ArrayList<byte[]> ();
+		for ( int i = 0; i < n; ++i )
+		{
+			byte[] hash = new byte[20];
+			rnd.nextBytes (hash);
+			hashes.add (hash);
+			addresses.add (AddressConverter.toSatoshiStyle (hash, i % 3 == 0, chain));
+		}
+		AddressScripts scripts = AddressScripts.fromAddresses (addresses, chain);
+		assertEquals (n, scripts.size ());
+		for ( int i = 0; i < n; ++i )
+		{
+			if ( i % 3 == 0 )
+			{
+				assertEquals (23, scripts.getLength (i));
+				ScriptFormat.Template template = ScriptFormat.classify (scripts.getBuffer (), scripts.getOffset (i), scripts.getLength (i));
+				assertEquals (ScriptFormat.ScriptType.PAY_TO_SCRIPT_HASH, template.getType ());
+				assertTrue (Arrays.equals (hashes.get (i), template.getPayload ()));
+			}
+			else
+			{
+				assertTrue (Arrays.equals (ScriptFormat.getPayToAddressScript (hashes.get (i)), scripts.getScript (i)));
+			}
+		}
+
+		addresses.set (n - 1, addresses.get (n - 1) + "1");
+		try
+		{
+			AddressScripts.fromAddresses (addresses, chain);
+			assertTrue (false);
+		}
+		catch ( ValidationException e )
+		{
+		}
+		String a = addresses.get (0);
+		addresses.set (n - 1, a.substring (0, a.length () - 1) + (a.endsWith ("2") ? "3" : "2"));
+		try
+		{
+			AddressScripts.fromAddresses (addresses, chain);
+			assertTrue (false);
+		}
+		catch ( ValidationException e )
+		{
+		}
+		assertEquals (0, AddressScripts.fromAddresses (new ArrayList<String> (), chain).size ());
+	}
 }
@@ -19,6 +19,7 @@ import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Arrays;
 
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -55,6 +56,14 @@ public class BitcoindTests
 			JSONArray test = testData.getJSONArray (i);
 			assertTrue (AddressConverter.toBase58 (ByteUtils.fromHex (test.getString (0))).equals (test.get (1)));
 			assertTrue (ByteUtils.toHex (AddressConverter.fromBase58 (test.getString (1))).equals (test.get (0)));
+
+			byte[] data = ByteUtils.fromHex (test.getString (0));
+			char[] chars = new char[Base58.maxEncodedLength (data.length) + 3];
+			int n = Base58.encode (data, 0, data.length, chars, 3);
+			assertTrue (new String (chars, 3, n).equals (test.get (1)));
+			byte[] bytes = new byte[Base58.maxDecodedLength (n) + 2];
+			int m = Base58.decode (test.getString (1), bytes, 2);
+			assertTrue (ByteUtils.toHex (Arrays.copyOfRange (bytes, 2, 2 + m)).equals (test.get (0)));
 		}
 	}
 }
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2012 Tamas Blummer tamas@bitsofproof.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitsofproof.supernode.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.jms.Connection;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageListener;
+import javax.jms.Session;
+
+import org.apache.activemq.ActiveMQConnectionFactory;
+import org.junit.Test;
+
+public class ClientBusAdaptorTest
+{
+	private static final String BROKER = "vm://bus-test?broker.persistent=false&broker.useJmx=false";
+
+	@Test
+	public void asyncSendTest () throws Exception
+	{
+		final int n = 500;
+		Connection connection = new ActiveMQConnectionFactory (BROKER).createConnection ();
+		connection.start ();
+		Session session = connection.createSession (false, Session.AUTO_ACKNOWLEDGE);
+		MessageConsumer consumer = session.createConsumer (session.createTopic (MessageCodec.topic ("newTransaction", MessageCodec.Format.WIRE)));
+		// clients of the serialized format never see wire format messages
+		Session legacySession = connection.createSession (false, Session.AUTO_ACKNOWLEDGE);
+		MessageConsumer legacy = legacySession.createConsumer (legacySession.createTopic ("newTransaction"));
+		final CountDownLatch received = new CountDownLatch (n);
+		final CountDownLatch all = new CountDownLatch (n + 2);
+		final List<String> hashes = new ArrayList<String> ();
+		consumer.setMessageListener (new MessageListener ()
+		{
+			@Override
+			public void onMessage (Message message)
+			{
+				try
+				{
+					synchronized ( hashes )
+					{
+						hashes.add (((Transaction) MessageCodec.decode (message)).getHash ());
+					}
+					received.countDown ();
+					all.countDown ();
+				}
+				catch ( JMSException e )
+				{
+				}
+			}
+		});
+
+		ClientBusAdaptor bus = new ClientBusAdaptor ();
+		bus.setBrokerURL (BROKER);
+		bus.setClientId ("asyncSendTest");
+		bus.setSendQueueSize (50);
+		bus.setSendBatchSize (20);
+		bus.setMessageFormat (MessageCodec.Format.WIRE);
+		bus.init ();
+		try
+		{
+			Transaction t = Block.fromWireDump (WireFormatTest.ANOTHER_BLOCK).getTransactions ().get (1);
+			List<Future<Void>> futures = new ArrayList<Future<Void>> ();
+			for ( int i = 0; i < n; ++i )
+			{
+				futures.add (bus.sendTransactionAsync (t));
+			}
+			for ( Future<Void> f : futures )
+			{
+				f.get (10, TimeUnit.SECONDS);
+			}
+			assertTrue (received.await (10, TimeUnit.SECONDS));
+			assertEquals (t.getHash (), hashes.get (n - 1));
+
+			// content that can not be encoded fails its own send but not the sender
+			Transaction broken = new Transaction ();
+			broken.setInputs (new ArrayList<TransactionInput> ());
+			broken.getInputs ().add (null);
+			try
+			{
+				bus.sendTransactionAsync (broken).get (10, TimeUnit.SECONDS);
+				assertTrue (false);
+			}
+			catch ( ExecutionException e )
+			{
+			}
+
+			// the content is captured when the send is requested
+			Transaction changed = t.clone ();
+			Future<Void> f = bus.sendTransactionAsync (changed);
+			changed.getOutputs ().get (0).setValue (changed.getOutputs ().get (0).getValue () + 1);
+			f.get (10, TimeUnit.SECONDS);
+			bus.sendTransactionAsync (t).get (10, TimeUnit.SECONDS);
+			assertTrue (all.await (10, TimeUnit.SECONDS));
+			synchronized ( hashes )
+			{
+				assertEquals (t.getHash (), hashes.get (n));
+			}
+			assertNull (legacy.receive (100));
+		}
+		finally
+		{
+			bus.destroy ();
+			connection.close ();
+		}
+
+		try
+		{
+			bus.sendTransactionAsync (new Transaction ()).get ();
+			assertTrue (false);
+		}
+		catch ( ExecutionException e )
+		{
+			assertTrue (e.getCause () instanceof JMSException);
+		}
+	}
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2012 Tamas Blummer tamas@bitsofproof.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitsofproof.supernode.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+public class ClockCacheTest
+{
+	@Test
+	public void evictionTest ()
+	{
+		ClockCache<Integer, Integer> cache = new ClockCache<Integer, Integer> (3);
+		cache.put (1, 1);
+		cache.put (2, 2);
+		cache.put (3, 3);
+		assertEquals (3, cache.size ());
+
+		// 1 and 3 are referenced, 2 is the first one not used since the hand passed
+		assertEquals (Integer.valueOf (1), cache.get (1));
+		assertEquals (Integer.valueOf (3), cache.get (3));
+		cache.put (4, 4);
+		assertEquals (3, cache.size ());
+		assertNull (cache.get (2));
+		assertEquals (Integer.valueOf (1), cache.get (1));
+		assertEquals (Integer.valueOf (3), cache.get (3));
+		assertEquals (Integer.valueOf (4), cache.get (4));
+
+		// replacing a value keeps the size
+		cache.put (4, 5);
+		assertEquals (3, cache.size ());
+		assertEquals (Integer.valueOf (5), cache.get (4));
+
+		assertEquals (6, cache.getHits ());
+		assertEquals (1, cache.getMisses ());
+		assertEquals (6.0 / 7.0, cache.getHitRatio (), 1e-9);
+
+		cache.clear ();
+		assertEquals (0, cache.size ());
+		assertNull (cache.get (1));
+		for ( int i = 0; i < 10; ++i )
+		{
+			cache.put (i, i);
+		}
+		assertEquals (3, cache.size ());
+
+		try
+		{
+			new ClockCache<Integer, Integer> (0);
+			assertTrue (false);
+		}
+		catch ( IllegalArgumentException e )
+		{
+		}
+	}
+
+	@Test
+	public void concurrentTest () throws Exception
+	{
+		final ClockCache<Integer, Integer> cache = new ClockCache<Integer, Integer> (100);
+		ExecutorService executor = Executors.newFixedThreadPool (4);
+		try
+		{
+			List<Future<Boolean>> results = new ArrayList<Future<Boolean>> ();
+			for ( int t = 0; t < 4; ++t )
+			{
+				final int seed = t;
+				results.add (executor.submit (new Callable<Boolean> ()
+				{
+					@Override
+					public Boolean call ()
+					{
+						for ( int i = 0; i < 10000; ++i )
+						{
+							int k = (i * 31 + seed) % 500;
+							Integer v = cache.get (k);
+							if ( v == null )
+							{
+								cache.put (k, k);
+							}
+							else if ( v.intValue () != k )
+							{
+								return false;
+							}
+						}
+						return true;
+					}
+				}));
+			}
+			for ( Future<Boolean> r : results )
+			{
+				assertTrue (r.get ());
+			}
+		}
+		finally
+		{
+			executor.shutdown ();
+		}
+		assertTrue (cache.size () <= 100);
+		assertEquals (40000, cache.getHits () + cache.getMisses ());
+	}
+}
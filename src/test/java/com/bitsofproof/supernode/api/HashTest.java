@@ -0,0 +1,105 @@
+/*
+ * Copyright 2012 Tamas Blummer tamas@bitsofproof.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitsofproof.supernode.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class HashTest
+{
+	@Test
+	public void representationTest ()
+	{
+		SecureRandom rnd = new SecureRandom ();
+		for ( int i = 0; i < 1000; ++i )
+		{
+			byte[] b = new byte[32];
+			rnd.nextBytes (b);
+			Hash h = new Hash (b);
+			assertTrue (Arrays.equals (b, h.toByteArray ()));
+			assertEquals (ByteUtils.toHex (ByteUtils.reverse (Arrays.copyOf (b, 32))), h.toString ());
+			assertEquals (h, new Hash (h.toString ()));
+			assertEquals (h, Hash.fromBuffer (ByteBuffer.wrap (b), 0));
+			assertEquals (h, new WireFormat.Reader (b).readHash ());
+		}
+		assertEquals ("0000000000000000000000000000000000000000000000000000000000000000", Hash.ZERO_HASH_STRING);
+	}
+
+	@Test
+	public void keyTest ()
+	{
+		SecureRandom rnd = new SecureRandom ();
+		Map<Hash, Integer> map = new HashMap<Hash, Integer> ();
+		Hash[] hashes = new Hash[1000];
+		for ( int i = 0; i < hashes.length; ++i )
+		{
+			byte[] b = new byte[32];
+			rnd.nextBytes (b);
+			hashes[i] = new Hash (b);
+			map.put (hashes[i], i);
+		}
+		for ( int i = 0; i < hashes.length; ++i )
+		{
+			Hash copy = new Hash (hashes[i].toString ());
+			assertEquals (hashes[i].hashCode (), copy.hashCode ());
+			assertEquals (Integer.valueOf (i), map.get (copy));
+			if ( i > 0 )
+			{
+				assertFalse (hashes[i].equals (hashes[i - 1]));
+				assertEquals (Integer.signum (hashes[i].toBigInteger ().compareTo (hashes[i - 1].toBigInteger ())),
+						Integer.signum (hashes[i].compareTo (hashes[i - 1])));
+			}
+		}
+	}
+
+	@Test
+	public void digestTest () throws NoSuchAlgorithmException
+	{
+		SecureRandom rnd = new SecureRandom ();
+		MessageDigest reference = MessageDigest.getInstance ("SHA-256");
+		Hash.Hasher hasher = new Hash.Hasher ();
+		for ( int i = 0; i < 100; ++i )
+		{
+			byte[] data = new byte[rnd.nextInt (1000) + 64];
+			rnd.nextBytes (data);
+			byte[] expected = reference.digest (reference.digest (data));
+			assertTrue (Arrays.equals (expected, Hash.hash (data)));
+			assertTrue (Arrays.equals (reference.digest (data), Hash.sha256 (data)));
+
+			byte[] out = new byte[40];
+			Hash.hash (data, 0, data.length, out, 8);
+			assertTrue (Arrays.equals (expected, Arrays.copyOfRange (out, 8, 40)));
+
+			WireFormat.Reader reader = new WireFormat.Reader (data, 0, data.length);
+			assertEquals (new Hash (expected), hasher.update (reader, 0, 32).update (data, 32, data.length - 32).hash ());
+			assertEquals (reader.hash (10, 50), hasher.update (ByteBuffer.wrap (data, 10, 50)).hash ());
+
+			Hash h = new Hash (expected);
+			assertEquals (new Hash (Hash.hash (h.toByteArray ())), hasher.update (h).hash ());
+		}
+	}
+}
@@ -15,10 +15,17 @@
  */
 package com.bitsofproof.supernode.api;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.math.BigInteger;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
 
+import org.bouncycastle.asn1.sec.SECNamedCurves;
+import org.bouncycastle.asn1.x9.X9ECParameters;
 import org.junit.Test;
 
 import com.bitsofproof.supernode.api.ByteUtils;
@@ -72,6 +79,55 @@ public class KeyTest
 		assertTrue (ECKeyPair.verify (message, roundtripKey.sign (message), decodedKey.getPublic ()));
 	}
 
+	@Test
+	public void generatorTableTest () throws ValidationException
+	{
+		X9ECParameters curve = SECNamedCurves.getByName ("secp256k1");
+		BigInteger n = curve.getN ();
+		List<BigInteger> keys = new ArrayList<BigInteger> ();
+		keys.add (BigInteger.ONE);
+		keys.add (BigInteger.valueOf (15));
+		keys.add (BigInteger.valueOf (16));
+		keys.add (n.subtract (BigInteger.ONE));
+		keys.add (BigInteger.ONE.shiftLeft (255));
+		SecureRandom rnd = new SecureRandom ();
+		for ( int i = 0; i < 50; ++i )
+		{
+			keys.add (new BigInteger (256, rnd).mod (n.subtract (BigInteger.ONE)).add (BigInteger.ONE));
+		}
+		for ( BigInteger k : keys )
+		{
+			assertArrayEquals (curve.getG ().multiply (k).getEncoded (), ECKeyPair.multiplyG (k).getEncoded ());
+		}
+		assertArrayEquals (curve.getG ().multiply (n.add (BigInteger.ONE)).getEncoded (), ECKeyPair.multiplyG (n.add (BigInteger.ONE)).getEncoded ());
+
+		ECKeyPair key = ECKeyPair.createNew ();
+		byte[] message = Hash.sha256 ("derived".getBytes ());
+		assertTrue (ECKeyPair.verify (message, key.sign (message), key.getPublic ()));
+	}
+
+	@Test
+	public void signatureCacheTest () throws ValidationException
+	{
+		ECKeyPair k = ECKeyPair.createNew ();
+		byte[] hash = Hash.sha256 ("cached".getBytes ());
+		byte[] signature = k.sign (hash);
+		assertTrue (ECKeyPair.verify (hash, signature, k.getPublic ()));
+		long hits = ECKeyPair.getSignatureCache ().getHits ();
+		assertTrue (ECKeyPair.verify (hash, signature, k.getPublic ()));
+		assertTrue (ECKeyPair.getSignatureCache ().getHits () > hits);
+
+		byte[] other = Hash.sha256 ("not cached".getBytes ());
+		hits = ECKeyPair.getPublicKeyCache ().getHits ();
+		assertFalse (ECKeyPair.verify (other, signature, k.getPublic ()));
+		assertFalse (ECKeyPair.verify (other, signature, k.getPublic ()));
+		assertTrue (ECKeyPair.getPublicKeyCache ().getHits () >= hits + 2);
+
+		byte[] invalid = k.getPublic ().clone ();
+		invalid[0] = 9;
+		assertFalse (ECKeyPair.verify (hash, signature, invalid));
+	}
+
 	@Test
 	public void signTest () throws ValidationException
 	{
@@ -0,0 +1,192 @@
+/*
+ * Copyright 2012 Tamas Blummer tamas@bitsofproof.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitsofproof.supernode.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+public class MerkleTreeTest
+{
+	private static List<Hash> randomLeaves (int n)
+	{
+		SecureRandom rnd = new SecureRandom ();
+		List<Hash> leaves = new ArrayList<Hash> ();
+		for ( int i = 0; i < n; ++i )
+		{
+			byte[] b = new byte[32];
+			rnd.nextBytes (b);
+			leaves.add (new Hash (b));
+		}
+		return leaves;
+	}
+
+	// straight from the definition
+	private static Hash reference (List<Hash> level)
+	{
+		while ( level.size () > 1 )
+		{
+			List<Hash> next = new ArrayList<Hash> ();
+			for ( int i = 0; i < level.size (); i += 2 )
+			{
+				Hash left = level.get (i);
+				Hash right = level.get (Math.min (i + 1, level.size () - 1));
+				byte[] pair = new byte[64];
+				left.copyTo (pair, 0);
+				right.copyTo (pair, 32);
+				next.add (new Hash (Hash.hash (pair)));
+			}
+			level = next;
+		}
+		return level.get (0);
+	}
+
+	@Test
+	public void blockTest ()
+	{
+		Block b = Block.fromWireDump (WireFormatTest.ANOTHER_BLOCK);
+		Hash root = b.getBinaryMerkleRoot ();
+		b.computeMerkleRoot ();
+		assertEquals (root, b.getBinaryMerkleRoot ());
+	}
+
+	@Test
+	public void parallelTest ()
+	{
+		ExecutorService executor = Executors.newFixedThreadPool (4);
+		try
+		{
+			for ( int n : new int[] { 1, 2, 3, 7, MerkleTree.PARALLEL_THRESHOLD - 1, MerkleTree.PARALLEL_THRESHOLD * 3 + 1 } )
+			{
+				List<Hash> leaves = randomLeaves (n);
+				MerkleTree sequential = new MerkleTree (leaves);
+				sequential.compute (null);
+				MerkleTree parallel = new MerkleTree (leaves);
+				parallel.compute (executor);
+
+				Hash root = reference (leaves);
+				assertEquals (root, sequential.getRoot ());
+				assertEquals (root, parallel.getRoot ());
+				assertEquals (sequential.getHeight (), parallel.getHeight ());
+				int level = parallel.getHeight () - 2;
+				if ( level >= 0 )
+				{
+					for ( int i = 0; i < parallel.getLevelSize (level); ++i )
+					{
+						assertEquals (sequential.getNode (level, i), parallel.getNode (level, i));
+					}
+				}
+			}
+		}
+		finally
+		{
+			executor.shutdown ();
+		}
+	}
+
+	@Test
+	public void branchTest ()
+	{
+		for ( int n : new int[] { 1, 2, 5, 8, 33 } )
+		{
+			List<Hash> leaves = randomLeaves (n);
+			MerkleTree tree = new MerkleTree (leaves);
+			tree.compute ();
+			for ( int i = 0; i < n; ++i )
+			{
+				List<Hash> branch = tree.getBranch (i);
+				assertTrue (MerkleTree.verifyBranch (leaves.get (i), i, branch, tree.getRoot ()));
+				if ( n > 1 )
+				{
+					assertFalse (MerkleTree.verifyBranch (leaves.get ((i + 1) % n), i, branch, tree.getRoot ()));
+				}
+			}
+		}
+
+		Block b = Block.fromWireDump (WireFormatTest.ANOTHER_BLOCK);
+		Hash tx = b.getTransactions ().get (1).getBinaryHash ();
+		List<Hash> branch = b.getMerkleBranch (1);
+		b.setTransactions (null);
+		assertTrue (b.verifyMerkleBranch (tx, 1, branch));
+		assertFalse (b.verifyMerkleBranch (tx, 0, branch));
+	}
+
+	@Test
+	public void incrementalTest ()
+	{
+		List<Hash> leaves = randomLeaves (1);
+		MerkleTree tree = new MerkleTree (leaves);
+		List<Hash> more = randomLeaves (70);
+		for ( Hash h : more )
+		{
+			tree.addLeaf (h);
+			leaves.add (h);
+			assertEquals (reference (leaves), tree.getRoot ());
+		}
+		for ( int i : new int[] { 0, 33, 70 } )
+		{
+			Hash h = randomLeaves (1).get (0);
+			tree.setLeaf (i, h);
+			leaves.set (i, h);
+			assertEquals (reference (leaves), tree.getRoot ());
+		}
+	}
+
+	@Test
+	public void templateTest () throws ValidationException, CloneNotSupportedException
+	{
+		ChainParameter chain = new UnitTestChain ();
+		Block template = Block.fromWireDump (WireFormatTest.ANOTHER_BLOCK);
+		Transaction spend = template.getTransactions ().get (1);
+		for ( int i = 0; i < 10; ++i )
+		{
+			Transaction t = spend.clone ();
+			t.setLockTime (i);
+			t.computeHash ();
+			template.addTransaction (t);
+		}
+		String receiver = AddressConverter.toSatoshiStyle (Hash.keyHash (ECKeyPair.createNew ().getPublic ()), false, chain);
+		template.setCoinbase (TransactionFactory.createCoinbase (receiver, 1000, chain));
+
+		Hash root = template.getBinaryMerkleRoot ();
+		String hash = template.getHash ();
+		template.computeHash ();
+		assertEquals (root, template.getBinaryMerkleRoot ());
+		assertEquals (hash, template.getHash ());
+		assertEquals (hash, template.getTransactions ().get (11).getBlockHash ());
+
+		// a coinbase modified after it was hashed, set on a template without transactions
+		byte[] wire = ByteUtils.fromHex (WireFormatTest.ANOTHER_BLOCK);
+		Block empty = Block.fromWireHeaderOnly (new WireFormat.Reader (wire, 0, wire.length));
+		Transaction coinbase = TransactionFactory.createCoinbase (receiver, 1000, chain);
+		coinbase.setLockTime (1);
+		empty.setCoinbase (coinbase);
+		assertEquals (1, empty.getTransactions ().size ());
+		root = empty.getBinaryMerkleRoot ();
+		coinbase.computeHash ();
+		assertEquals (coinbase.getBinaryHash (), root);
+		empty.computeHash ();
+		assertEquals (root, empty.getBinaryMerkleRoot ());
+	}
+}
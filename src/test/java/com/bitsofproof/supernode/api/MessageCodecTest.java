@@ -0,0 +1,140 @@
+/*
+ * Copyright 2012 Tamas Blummer tamas@bitsofproof.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitsofproof.supernode.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.jms.JMSException;
+
+import org.apache.activemq.command.ActiveMQBytesMessage;
+import org.apache.activemq.command.ActiveMQObjectMessage;
+import org.junit.Test;
+
+public class MessageCodecTest
+{
+	private static int serializedSize (Serializable o) throws IOException
+	{
+		ByteArrayOutputStream bs = new ByteArrayOutputStream ();
+		ObjectOutputStream out = new ObjectOutputStream (bs);
+		out.writeObject (o);
+		out.close ();
+		return bs.size ();
+	}
+
+	@Test
+	public void transactionTest () throws JMSException, IOException
+	{
+		Block block = Block.fromWireDump (WireFormatTest.ANOTHER_BLOCK);
+		Transaction t = block.getTransactions ().get (1);
+		t.setBinaryBlockHash (block.getBinaryHash ());
+
+		byte[] body = MessageCodec.toBytes (t);
+		assertTrue (body.length < serializedSize (t));
+		Transaction d = (Transaction) MessageCodec.fromBytes (body);
+		assertEquals (t.getHash (), d.getHash ());
+		assertEquals (block.getHash (), d.getBlockHash ());
+		assertEquals (t.toWireDump (), d.toWireDump ());
+		assertEquals (t.getHash (), d.getOutputs ().get (0).getTransactionHash ());
+
+		t.setBinaryBlockHash (null);
+		assertNull (((Transaction) MessageCodec.fromBytes (MessageCodec.toBytes (t))).getBlockHash ());
+	}
+
+	@Test
+	public void blockTest () throws JMSException, IOException
+	{
+		Block block = Block.fromWireDump (WireFormatTest.ANOTHER_BLOCK);
+		byte[] body = MessageCodec.toBytes (block);
+		assertTrue (body.length < serializedSize (block));
+		Block d = (Block) MessageCodec.fromBytes (body);
+		assertEquals (WireFormatTest.ANOTHER_BLOCK, d.toWireDump ());
+		assertEquals (block.getHash (), d.getTransactions ().get (0).getBlockHash ());
+
+		// listeners get a list they can modify as with the serialized format
+		List<Transaction> transactions = d.getTransactions ();
+		int size = transactions.size ();
+		Transaction last = transactions.remove (size - 1);
+		assertEquals (block.getTransactions ().get (size - 1).getHash (), last.getHash ());
+		transactions.add (last);
+		assertEquals (size, transactions.size ());
+		assertEquals (WireFormatTest.ANOTHER_BLOCK, d.toWireDump ());
+
+		List<Block> added = new ArrayList<Block> ();
+		added.add (block);
+		added.add (d);
+		TrunkUpdateMessage update = new TrunkUpdateMessage (added, null);
+		TrunkUpdateMessage du = (TrunkUpdateMessage) MessageCodec.fromBytes (MessageCodec.toBytes (update));
+		assertEquals (0, du.getRemoved ().size ());
+		assertEquals (2, du.getAdded ().size ());
+		assertEquals (block.getHash (), du.getAdded ().get (1).getHash ());
+	}
+
+	@Test
+	public void messageTest () throws JMSException
+	{
+		Block block = Block.fromWireDump (WireFormatTest.ANOTHER_BLOCK);
+		Transaction t = block.getTransactions ().get (1);
+
+		ActiveMQBytesMessage bm = new ActiveMQBytesMessage ();
+		bm.setStringProperty (MessageCodec.FORMAT_PROPERTY, MessageCodec.WIRE_FORMAT_VERSION);
+		bm.writeBytes (MessageCodec.toBytes (t));
+		bm.reset ();
+		assertEquals (t.getHash (), ((Transaction) MessageCodec.decode (bm)).getHash ());
+
+		for ( String version : new String[] { null, "wire0" } )
+		{
+			ActiveMQBytesMessage unknown = new ActiveMQBytesMessage ();
+			unknown.setStringProperty (MessageCodec.FORMAT_PROPERTY, version);
+			unknown.writeBytes (MessageCodec.toBytes (t));
+			unknown.reset ();
+			try
+			{
+				MessageCodec.decode (unknown);
+				assertTrue (false);
+			}
+			catch ( JMSException e )
+			{
+			}
+		}
+
+		ActiveMQObjectMessage om = new ActiveMQObjectMessage ();
+		om.setObject (t);
+		assertEquals (t.getHash (), ((Transaction) MessageCodec.decode (om)).getHash ());
+
+		byte[] body = MessageCodec.toBytes (t);
+		for ( byte[] b : new byte[][] { new byte[] { 9 }, Arrays.copyOf (body, body.length - 1), Arrays.copyOf (body, body.length + 1) } )
+		{
+			try
+			{
+				MessageCodec.fromBytes (b);
+				assertTrue (false);
+			}
+			catch ( JMSException e )
+			{
+			}
+		}
+	}
+}
@@ -0,0 +1,425 @@
+/*
+ * Copyright 2012 Tamas Blummer tamas@bitsofproof.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitsofproof.supernode.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+public class ScriptEvaluatorTest
+{
+	// the transaction of block 170 spending the coinbase of block 9
+	static final String TX170 =
+			"0100000001c997a5e56e104102fa209c6a852dd90660a20b2d9c352423edce25857fcd3704000000004847304402204e45e16932b8af514961a1d3a1a25fdf3f4f7732e9d624c6c61548ab5fb8cd410220181522ec8eca07de4860a4acdd12909d831cc56cbbac4622082221a8768d1d0901ffffffff0200ca9a3b00000000434104ae1a62fe09c5f51b13905f07f06b99a2f7159b2225f374cd378d71302fa28414e7aab37397f554a7df5f142c21c1b7303b8a0626f1baded5c72a704f7e6cd84cac00286bee0000000043410411db93e1dcdb8a016b49840f8c53bc1eb68a382e97b1482ecad7b148a6909a5cb2e0eaddfb84ccf9744464f82e160bfa9b8b64f9d4c03f999b8643f656b412a3ac00000000";
+	static final String BLOCK9_OUTPUT =
+			"410411db93e1dcdb8a016b49840f8c53bc1eb68a382e97b1482ecad7b148a6909a5cb2e0eaddfb84ccf9744464f82e160bfa9b8b64f9d4c03f999b8643f656b412a3ac";
+
+	@Test
+	public void signatureTest ()
+	{
+		Transaction t = Transaction.fromWireDump (TX170);
+		assertEquals ("f4184fc596403b9d638783cf57adfe4c75c605f6356fbc91338530e9831e9e16", t.getHash ());
+		assertTrue (new ScriptEvaluator (t, 0).evaluate (ByteUtils.fromHex (BLOCK9_OUTPUT), true));
+
+		// other key
+		String other = BLOCK9_OUTPUT.replace ("0411db93", "0411db94");
+		assertFalse (new ScriptEvaluator (t, 0).evaluate (ByteUtils.fromHex (other), true));
+
+		// modified transaction
+		t.getOutputs ().get (0).setValue (t.getOutputs ().get (0).getValue () + 1);
+		assertFalse (new ScriptEvaluator (t, 0).evaluate (ByteUtils.fromHex (BLOCK9_OUTPUT), true));
+	}
+
+	@Test
+	public void signedTest () throws ValidationException
+	{
+		ECKeyPair key = ECKeyPair.createNew ();
+		Transaction t = Transaction.fromWireDump (TX170);
+		byte[] source = ScriptFormat.getPayToAddressScript (key.getAddress ());
+
+		ScriptEvaluator evaluator = new ScriptEvaluator (t, 0);
+		byte[] signature = key.sign (evaluator.signatureHash (source, ScriptFormat.SIGHASH_ALL));
+		ScriptFormat.Writer writer = new ScriptFormat.Writer ();
+		byte[] sig = new byte[signature.length + 1];
+		System.arraycopy (signature, 0, sig, 0, signature.length);
+		sig[signature.length] = ScriptFormat.SIGHASH_ALL;
+		writer.writeData (sig);
+		writer.writeData (key.getPublic ());
+		t.getInputs ().get (0).setScript (writer.toByteArray ());
+		assertTrue (new ScriptEvaluator (t, 0).evaluate (source, true));
+
+		// pay to script hash of a 1 of 2 multisig
+		byte[] redeem =
+				ScriptFormat.fromReadable ("OP_1 0x41" + ByteUtils.toHex (ECKeyPair.createNew ().getPublic ()) + " 0x41" + ByteUtils.toHex (key.getPublic ())
+						+ " OP_2 OP_CHECKMULTISIG");
+		source = ScriptFormat.fromReadable ("OP_HASH160 0x14" + ByteUtils.toHex (Hash.keyHash (redeem)) + " OP_EQUAL");
+		signature = key.sign (evaluator.signatureHash (redeem, ScriptFormat.SIGHASH_ALL));
+		sig = new byte[signature.length + 1];
+		System.arraycopy (signature, 0, sig, 0, signature.length);
+		sig[signature.length] = ScriptFormat.SIGHASH_ALL;
+		writer = new ScriptFormat.Writer ();
+		writer.writeByte (0);
+		writer.writeData (sig);
+		writer.writeData (redeem);
+		t.getInputs ().get (0).setScript (writer.toByteArray ());
+		assertTrue (new ScriptEvaluator (t, 0).evaluate (source, true));
+		// without BIP16 only the hash of the redeem script is checked
+		assertTrue (new ScriptEvaluator (t, 0).evaluate (source, false));
+
+		// the signing key altered in the redeem script
+		writer = new ScriptFormat.Writer ();
+		writer.writeByte (0);
+		writer.writeData (sig);
+		redeem[redeem.length - 3] ^= 1;
+		writer.writeData (redeem);
+		t.getInputs ().get (0).setScript (writer.toByteArray ());
+		source = ScriptFormat.fromReadable ("OP_HASH160 0x14" + ByteUtils.toHex (Hash.keyHash (redeem)) + " OP_EQUAL");
+		assertFalse (new ScriptEvaluator (t, 0).evaluate (source, true));
+	}
+
+	@Test
+	public void codeSeparatorTest () throws ValidationException
+	{
+		ECKeyPair key = ECKeyPair.createNew ();
+		Transaction t = Transaction.fromWireDump (TX170);
+		String pub = "0x41" + ByteUtils.toHex (key.getPublic ());
+		// the separator after the check is not executed, but is not part of the signed script either
+		byte[] source = ScriptFormat.fromReadable ("OP_CODESEPARATOR " + pub + " OP_CHECKSIGVERIFY OP_CODESEPARATOR OP_1");
+		byte[] signed = ScriptFormat.fromReadable (pub + " OP_CHECKSIGVERIFY OP_1");
+		assertTrue (Arrays.equals (signed, ScriptFormat.deleteCodeSeparators (source)));
+
+		ScriptEvaluator evaluator = new ScriptEvaluator (t, 0);
+		for ( byte[] subscript : new byte[][] { signed, Arrays.copyOfRange (source, 1, source.length) } )
+		{
+			byte[] signature = key.sign (evaluator.signatureHash (subscript, ScriptFormat.SIGHASH_ALL));
+			byte[] sig = Arrays.copyOf (signature, signature.length + 1);
+			sig[signature.length] = ScriptFormat.SIGHASH_ALL;
+			ScriptFormat.Writer writer = new ScriptFormat.Writer ();
+			writer.writeData (sig);
+			t.getInputs ().get (0).setScript (writer.toByteArray ());
+			assertEquals (subscript == signed, new ScriptEvaluator (t, 0).evaluate (source, true));
+		}
+
+		assertTrue (evaluate ("0x03616263", "OP_SHA1 0x14a9993e364706816aba3e25717850c26c9cd0d89d OP_EQUAL"));
+	}
+
+	@Test
+	public void pushDataScriptCodeTest () throws ValidationException
+	{
+		ECKeyPair key = ECKeyPair.createNew ();
+		Transaction t = Transaction.fromWireDump (TX170);
+		byte[] data = new byte[100];
+		new Random (3).nextBytes (data);
+		String pub = "0x41" + ByteUtils.toHex (key.getPublic ());
+		String push = "0x4c64" + ByteUtils.toHex (data) + " OP_DROP ";
+		ScriptEvaluator evaluator = new ScriptEvaluator (t, 0);
+
+		for ( String redeem : new String[] { push + pub + " OP_CHECKSIG", push + "OP_1 " + pub + " OP_1 OP_CHECKMULTISIG" } )
+		{
+			byte[] script = ScriptFormat.fromReadable (redeem);
+			byte[] signature = key.sign (evaluator.signatureHash (script, ScriptFormat.SIGHASH_ALL));
+			byte[] sig = Arrays.copyOf (signature, signature.length + 1);
+			sig[signature.length] = ScriptFormat.SIGHASH_ALL;
+
+			// the output script itself
+			ScriptFormat.Writer writer = new ScriptFormat.Writer ();
+			if ( redeem.endsWith ("OP_CHECKMULTISIG") )
+			{
+				writer.writeToken (new ScriptFormat.Token (ScriptFormat.Opcode.OP_FALSE));
+			}
+			writer.writeData (sig);
+			t.getInputs ().get (0).setScript (writer.toByteArray ());
+			assertTrue (new ScriptEvaluator (t, 0).evaluate (script, true));
+
+			// as redeem script of pay to script hash
+			writer.writeData (script);
+			t.getInputs ().get (0).setScript (writer.toByteArray ());
+			byte[] p2sh = ScriptFormat.fromReadable ("OP_HASH160 0x14" + ByteUtils.toHex (Hash.keyHash (script)) + " OP_EQUAL");
+			assertTrue (new ScriptEvaluator (t, 0).evaluate (p2sh, true));
+		}
+	}
+
+	// signature hash of a modified copy of the transaction
+	private static byte[] referenceHash (Transaction transaction, int inr, byte[] subscript, int hashType) throws CloneNotSupportedException
+	{
+		Transaction copy = transaction.clone ();
+		List<TransactionInput> inputs = copy.getInputs ();
+		for ( int i = 0; i < inputs.size (); ++i )
+		{
+			inputs.get (i).setScript (i == inr ? subscript : new byte[0]);
+			if ( i != inr && ((hashType & 0x1f) == ScriptFormat.SIGHASH_NONE || (hashType & 0x1f) == ScriptFormat.SIGHASH_SINGLE) )
+			{
+				inputs.get (i).setSequence (0);
+			}
+		}
+		if ( (hashType & 0x1f) == ScriptFormat.SIGHASH_NONE )
+		{
+			copy.setOutputs (new ArrayList<TransactionOutput> ());
+		}
+		else if ( (hashType & 0x1f) == ScriptFormat.SIGHASH_SINGLE )
+		{
+			List<TransactionOutput> outputs = new ArrayList<TransactionOutput> ();
+			for ( int i = 0; i < inr; ++i )
+			{
+				TransactionOutput blank = new TransactionOutput ();
+				blank.setValue (-1);
+				blank.setScript (new byte[0]);
+				outputs.add (blank);
+			}
+			outputs.add (copy.getOutputs ().get (inr));
+			copy.setOutputs (outputs);
+		}
+		if ( (hashType & ScriptFormat.SIGHASH_ANYONECANPAY) != 0 )
+		{
+			List<TransactionInput> one = new ArrayList<TransactionInput> ();
+			one.add (inputs.get (inr));
+			copy.setInputs (one);
+		}
+		WireFormat.Writer writer = new WireFormat.Writer ();
+		copy.toWire (writer);
+		writer.writeUint32 (hashType);
+		return Hash.hash (writer.toByteArray ());
+	}
+
+	// expected hashes computed with an independent implementation of the reference algorithm
+	private static final String SIGHASH_TX =
+			"01000000030101010101010101010101010101010101010101010101010101010101010101010000000151feffffff0202020202020202020202020202020202020202020202020202020202020202"
+					+ "08000000025151fdffffff03030303030303030303030303030303030303030303030303030303030303030f00000003515151fcffffff0250c30000000000001976a91420202020202020"
+					+ "2020202020202020202020202088aca0860100000000001976a914212121212121212121212121212121212121212188ac11000000";
+	private static final String SIGHASH_CODE = "76a914abababababababababababababababababababab88abac";
+	private static final Object[][] SIGHASH_VECTORS = {
+			{ 0, 0x03, "83d618864f823c6fa994cba5e625855ed0c7d6c46f972592d8171cb88a8257cf" },
+			{ 1, 0x03, "212d92ab7852f2dc586dc4c41f457c6ab30ec90eb6f5f92775ce56f8c192c0c8" },
+			{ 2, 0x03, "0100000000000000000000000000000000000000000000000000000000000000" },
+			{ 1, 0x82, "beee7fa6502d36300e8c9432e19441a64bc11bae64eba3758f5b43b82cc6238b" },
+			{ 0, 0x83, "e5f65b77131f75513d07a69d1efd21d3ee8026e18331309e8479e6c44f9510bb" },
+			{ 2, 0x83, "0100000000000000000000000000000000000000000000000000000000000000" },
+			{ 2, 0x02, "86e2707e07219438d64b81bfc938ab2568af85610cd8ae92aeb52a447005b1b4" },
+			{ 0, 0x01, "c68d689413a1cf53e9928629f5c5cd683f7399df1fb1a57c9a755683e7c98a68" },
+			{ 1, 0x01, "03669c27320fa9e7fa2980f7b010eb497658a67b2bd5327398d17d9a1c48fd99" },
+			{ 1, 0x81, "cea0b7c5814e55da66d4c1ae0723641b5b188e0c8558a3ac7f254922e1bdc7a4" },
+			{ 2, 0x82, "87c6fc868f5df985c0842eb8f0e45fe85bb91a9d02c2855cc9b2f49e51b505aa" } };
+
+	@Test
+	public void signatureHashVectorTest () throws ValidationException
+	{
+		Transaction t = Transaction.fromWireDump (SIGHASH_TX);
+		byte[] scriptCode = ScriptFormat.getScriptCode (ByteUtils.fromHex (SIGHASH_CODE), 0);
+		// the separator is removed, the 0xab bytes of the push are kept
+		assertEquals ("76a914abababababababababababababababababababab88ac", ByteUtils.toHex (scriptCode));
+
+		// one calculator in the order of the vectors, inputs revisited after later ones reuse or restart the prefixes
+		SignatureHash signatureHash = new SignatureHash (t);
+		for ( Object[] v : SIGHASH_VECTORS )
+		{
+			assertEquals (v[2], ByteUtils.toHex (signatureHash.hash ((Integer) v[0], scriptCode, (Integer) v[1])));
+		}
+		for ( int i = SIGHASH_VECTORS.length - 1; i >= 0; --i )
+		{
+			Object[] v = SIGHASH_VECTORS[i];
+			assertEquals (v[2], ByteUtils.toHex (new SignatureHash (t).hash ((Integer) v[0], scriptCode, (Integer) v[1])));
+			assertEquals (v[2], ByteUtils.toHex (signatureHash.hash ((Integer) v[0], scriptCode, (Integer) v[1])));
+		}
+	}
+
+	@Test
+	public void signatureHashTest () throws CloneNotSupportedException
+	{
+		Random rnd = new Random (1);
+		Transaction t = new Transaction ();
+		List<TransactionInput> inputs = new ArrayList<TransactionInput> ();
+		for ( int i = 0; i < 500; ++i )
+		{
+			TransactionInput in = new TransactionInput ();
+			byte[] h = new byte[32];
+			rnd.nextBytes (h);
+			in.setBinarySourceHash (new Hash (h));
+			in.setIx (rnd.nextInt (10));
+			in.setSequence (rnd.nextInt (2) == 0 ? 0xffffffffL : rnd.nextInt ());
+			in.setScript (new byte[rnd.nextInt (120)]);
+			inputs.add (in);
+		}
+		t.setInputs (inputs);
+		List<TransactionOutput> outputs = new ArrayList<TransactionOutput> ();
+		for ( int i = 0; i < 20; ++i )
+		{
+			TransactionOutput out = new TransactionOutput ();
+			out.setValue (rnd.nextInt (100000));
+			byte[] h = new byte[20];
+			rnd.nextBytes (h);
+			out.setScript (ScriptFormat.getPayToAddressScript (h));
+			outputs.add (out);
+		}
+		t.setOutputs (outputs);
+		t.setLockTime (12345);
+		t.computeHash ();
+
+		int[] types =
+				{ ScriptFormat.SIGHASH_ALL, ScriptFormat.SIGHASH_NONE, ScriptFormat.SIGHASH_SINGLE,
+						ScriptFormat.SIGHASH_ALL | ScriptFormat.SIGHASH_ANYONECANPAY, ScriptFormat.SIGHASH_NONE | ScriptFormat.SIGHASH_ANYONECANPAY,
+						ScriptFormat.SIGHASH_SINGLE | ScriptFormat.SIGHASH_ANYONECANPAY };
+		byte[] subscript = ScriptFormat.getPayToAddressScript (new byte[20]);
+		SignatureHash calculator = new SignatureHash (t);
+		for ( int i = 0; i < 500; ++i )
+		{
+			int type = types[rnd.nextInt (types.length)];
+			// mostly in order as when signing
+			int inr = rnd.nextInt (10) == 0 ? rnd.nextInt (500) : i;
+			if ( (type & 0x1f) == ScriptFormat.SIGHASH_SINGLE && inr >= outputs.size () && rnd.nextBoolean () )
+			{
+				inr = rnd.nextInt (outputs.size ());
+			}
+			byte[] expected = (type & 0x1f) == ScriptFormat.SIGHASH_SINGLE && inr >= outputs.size () ? null : referenceHash (t, inr, subscript, type);
+			byte[] hash = calculator.hash (inr, subscript, type);
+			if ( expected != null )
+			{
+				assertEquals (ByteUtils.toHex (expected), ByteUtils.toHex (hash));
+			}
+			else
+			{
+				assertEquals (1, hash[0]);
+			}
+		}
+		assertEquals (t.getHash (), Transaction.fromWireDump (t.toWireDump ()).getHash ());
+	}
+
+	@Test
+	public void verifierTest () throws ValidationException
+	{
+		int n = 16;
+		Transaction t = Transaction.fromWireDump (TX170);
+		List<TransactionInput> inputs = new ArrayList<TransactionInput> ();
+		List<TransactionOutput> spent = new ArrayList<TransactionOutput> ();
+		ECKeyPair[] keys = new ECKeyPair[n];
+		for ( int i = 0; i < n; ++i )
+		{
+			TransactionInput in = new TransactionInput ();
+			in.setBinarySourceHash (t.getBinaryHash ());
+			in.setIx (i);
+			inputs.add (in);
+			keys[i] = ECKeyPair.createNew ();
+			TransactionOutput out = new TransactionOutput ();
+			out.setScript (ScriptFormat.getPayToAddressScript (keys[i].getAddress ()));
+			spent.add (out);
+		}
+		t.setInputs (inputs);
+		SignatureHash signatureHash = new SignatureHash (t);
+		for ( int i = 0; i < n; ++i )
+		{
+			byte[] signature = keys[i].sign (signatureHash.hash (i, spent.get (i).getScript (), ScriptFormat.SIGHASH_ALL));
+			byte[] sig = new byte[signature.length + 1];
+			System.arraycopy (signature, 0, sig, 0, signature.length);
+			sig[signature.length] = ScriptFormat.SIGHASH_ALL;
+			ScriptFormat.Writer writer = new ScriptFormat.Writer ();
+			writer.writeData (sig);
+			writer.writeData (keys[i].getPublic ());
+			inputs.get (i).setScript (writer.toByteArray ());
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool (3);
+		try
+		{
+			TransactionVerifier verifier = new TransactionVerifier (executor, 4, true);
+			TransactionVerifier.Result result = verifier.verify (t, spent);
+			assertTrue (result.isValid ());
+			assertEquals (-1, result.getFirstInvalid ());
+			assertTrue (new TransactionVerifier (true).verify (t, spent).isValid ());
+
+			spent.get (5).setScript (spent.get (6).getScript ());
+			result = verifier.verify (t, spent);
+			assertFalse (result.isValid ());
+			assertEquals (5, result.getFirstInvalid ());
+			assertEquals (TransactionVerifier.Status.INVALID, result.getStatus (5));
+			// other ranges may stop before evaluating their inputs
+			assertTrue (result.getStatus (0) != TransactionVerifier.Status.INVALID);
+
+			result = new TransactionVerifier (true).verify (t, spent);
+			assertEquals (5, result.getFirstInvalid ());
+			assertEquals (TransactionVerifier.Status.NOT_EVALUATED, result.getStatus (6));
+
+			Transaction empty = new Transaction ();
+			assertTrue (verifier.verify (empty, new ArrayList<TransactionOutput> ()).isValid ());
+		}
+		finally
+		{
+			executor.shutdown ();
+		}
+	}
+
+	private boolean evaluate (String scriptSig, String script)
+	{
+		Transaction t = new Transaction ();
+		List<TransactionInput> inputs = new ArrayList<TransactionInput> ();
+		TransactionInput input = new TransactionInput ();
+		input.setSourceHash (Hash.ZERO_HASH_STRING);
+		input.setScript (ScriptFormat.fromReadable (scriptSig));
+		inputs.add (input);
+		t.setInputs (inputs);
+		t.setOutputs (new ArrayList<TransactionOutput> ());
+		return new ScriptEvaluator (t, 0).evaluate (ScriptFormat.fromReadable (script), true);
+	}
+
+	@Test
+	public void operatorTest ()
+	{
+		assertTrue (evaluate ("2 3", "ADD 5 EQUAL"));
+		assertFalse (evaluate ("2 3", "ADD 6 EQUAL"));
+		assertTrue (evaluate ("2 3", "SUB -1 EQUAL"));
+		assertTrue (evaluate ("1000 -1000", "ADD 0 EQUAL"));
+		assertTrue (evaluate ("3", "IF 1 ELSE 0 ENDIF"));
+		assertFalse (evaluate ("0", "IF 1 ELSE 0 ENDIF"));
+		assertTrue (evaluate ("0", "NOTIF 0 IF RETURN ENDIF 1 ENDIF"));
+		assertFalse (evaluate ("1", "IF 1"));
+		assertFalse (evaluate ("1", "ENDIF"));
+		assertTrue (evaluate ("1 2 3", "ROT 1 EQUALVERIFY 3 EQUALVERIFY 2 EQUAL"));
+		assertTrue (evaluate ("1 2 3 4", "2SWAP 2 EQUALVERIFY 1 EQUALVERIFY 4 EQUALVERIFY 3 EQUAL"));
+		assertTrue (evaluate ("1 2 3", "2 PICK 1 EQUALVERIFY DEPTH 3 EQUAL"));
+		assertTrue (evaluate ("1 2 3", "2 ROLL 1 EQUALVERIFY DEPTH 2 EQUAL"));
+		assertTrue (evaluate ("1", "TOALTSTACK 2 FROMALTSTACK 1 EQUALVERIFY 2 EQUAL"));
+		assertTrue (evaluate ("'abc'", "SIZE 3 EQUALVERIFY 'abc' EQUAL"));
+		assertTrue (evaluate ("5 1 10", "WITHIN"));
+		assertFalse (evaluate ("10 1 10", "WITHIN"));
+		assertTrue (evaluate ("0x0180", "NOT"));
+		assertFalse (evaluate ("1", "DROP"));
+		assertFalse (evaluate ("1 1", "CAT"));
+		assertFalse (evaluate ("0", "IF CAT ENDIF 1"));
+		assertTrue (evaluate ("0", "IF RESERVED ENDIF 1"));
+		assertTrue (evaluate ("'abc'", "HASH160 0x14" + ByteUtils.toHex (Hash.keyHash ("abc".getBytes ())) + " EQUALVERIFY 1"));
+	}
+
+	@Test
+	public void numberTest ()
+	{
+		for ( long n = -70000; n <= 70000; n += 7 )
+		{
+			assertEquals (n, ScriptEvaluator.toNumber (ScriptEvaluator.toBytes (n)));
+		}
+		assertEquals ("ff00", ByteUtils.toHex (ScriptEvaluator.toBytes (255)));
+		assertEquals ("ff80", ByteUtils.toHex (ScriptEvaluator.toBytes (-255)));
+		assertEquals ("81", ByteUtils.toHex (ScriptEvaluator.toBytes (-1)));
+		assertFalse (ScriptEvaluator.isTrue (ByteUtils.fromHex ("000080")));
+		assertTrue (ScriptEvaluator.isTrue (ByteUtils.fromHex ("000180")));
+	}
+}
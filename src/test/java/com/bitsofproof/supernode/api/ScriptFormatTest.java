@@ -0,0 +1,198 @@
+/*
+ * Copyright 2012 Tamas Blummer tamas@bitsofproof.com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.bitsofproof.supernode.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class ScriptFormatTest
+{
+	private static final String KEY = "03dac3fb8de40965f42fb4afb3baa07d3304bc2aa28cfc25f12b52f1523681451d";
+	private static final String KEY_HASH = "944a7d4b3a8d3a5ecf19dfdfd8dcc18c6f1487dd";
+
+	@Test
+	public void scannerTest () throws ValidationException
+	{
+		byte[] script =
+				ScriptFormat.fromReadable ("OP_DUP 0x" + ByteUtils.toHex (new byte[] { 76, 2, 1, 2 }) + " 0x"
+						+ ByteUtils.toHex (new byte[] { 77, 1, 0, 3 }) + " 0x" + ByteUtils.toHex (new byte[] { 78, 1, 0, 0, 0, 4 }) + " OP_FALSE OP_CHECKSIG");
+		List<ScriptFormat.Token> tokens = ScriptFormat.parse (script);
+		ScriptFormat.Scanner scanner = new ScriptFormat.Scanner (script);
+		for ( ScriptFormat.Token token : tokens )
+		{
+			assertTrue (scanner.next ());
+			assertEquals (token.op, scanner.getOp ());
+			if ( token.op.o <= 78 )
+			{
+				assertTrue (scanner.isPush ());
+				assertTrue (Arrays.equals (token.data, Arrays.copyOfRange (script, scanner.getDataOffset (), scanner.getDataOffset () + scanner.getDataLength ())));
+			}
+			else
+			{
+				assertFalse (scanner.isPush ());
+			}
+		}
+		assertFalse (scanner.next ());
+		assertEquals (script.length, scanner.getCursor ());
+
+		scanner.reset (script, 0, 3);
+		assertTrue (scanner.next ());
+		try
+		{
+			scanner.next ();
+			assertTrue (false);
+		}
+		catch ( ValidationException e )
+		{
+		}
+	}
+
+	@Test
+	public void classifyTest ()
+	{
+		byte[] script = ScriptFormat.fromReadable ("OP_DUP OP_HASH160 0x14" + KEY_HASH + " OP_EQUALVERIFY OP_CHECKSIG");
+		assertTrue (Arrays.equals (script, ScriptFormat.getPayToAddressScript (ByteUtils.fromHex (KEY_HASH))));
+		assertPayload (script, ScriptFormat.ScriptType.PAY_TO_ADDRESS, KEY_HASH);
+		assertTrue (ScriptFormat.isPayToAddress (script));
+		assertTrue (ScriptFormat.isStandard (script));
+		assertFalse (ScriptFormat.isPayToKey (script));
+
+		script = ScriptFormat.fromReadable ("OP_HASH160 0x14" + KEY_HASH + " OP_EQUAL");
+		assertPayload (script, ScriptFormat.ScriptType.PAY_TO_SCRIPT_HASH, KEY_HASH);
+		assertTrue (ScriptFormat.isPayToScriptHash (script));
+
+		script = ScriptFormat.fromReadable ("0x21" + KEY + " OP_CHECKSIG");
+		assertPayload (script, ScriptFormat.ScriptType.PAY_TO_KEY, KEY);
+		assertTrue (ScriptFormat.isPayToKey (script));
+
+		script = ScriptFormat.fromReadable ("OP_1 0x21" + KEY + " 0x21" + KEY + " OP_2 OP_CHECKMULTISIG");
+		assertEquals (ScriptFormat.ScriptType.MULTISIG, ScriptFormat.classify (script).getType ());
+		assertTrue (ScriptFormat.isMultiSig (script));
+
+		String[] nonstandard =
+				{ "", "OP_DUP OP_HASH160 0x14" + KEY_HASH + " OP_EQUALVERIFY OP_CHECKSIG OP_NOP", "OP_HASH160 0x13" + KEY_HASH.substring (2) + " OP_EQUAL",
+						"0x21" + KEY + " OP_CHECKSIGVERIFY", "OP_3 0x21" + KEY + " 0x21" + KEY + " OP_2 OP_CHECKMULTISIG",
+						"OP_1 0x21" + KEY + " 0x21" + KEY + " OP_3 OP_CHECKMULTISIG", "OP_1 0x01ff OP_1 OP_CHECKMULTISIG", "OP_HASH160 0x14" + KEY_HASH.substring (4),
+						"OP_RETURN" };
+		for ( String s : nonstandard )
+		{
+			script = ScriptFormat.fromReadable (s);
+			assertEquals (s, ScriptFormat.ScriptType.NONSTANDARD, ScriptFormat.classify (script).getType ());
+			assertFalse (ScriptFormat.isStandard (script));
+		}
+	}
+
+	@Test
+	public void templateTest ()
+	{
+		ChainParameter chain = new UnitTestChain ();
+		byte[] key = ByteUtils.fromHex (KEY);
+		byte[] hash = ByteUtils.fromHex (KEY_HASH);
+
+		ScriptFormat.Template template = ScriptFormat.classify (ScriptFormat.getPayToAddressScript (hash));
+		assertEquals (1, template.getRequiredSignatures ());
+		assertEquals (0, template.getKeyCount ());
+		assertEquals (AddressConverter.toSatoshiStyle (hash, false, chain), template.getAddress (chain));
+
+		template = ScriptFormat.classify (ScriptFormat.fromReadable ("OP_HASH160 0x14" + KEY_HASH + " OP_EQUAL"));
+		assertEquals (AddressConverter.toSatoshiStyle (hash, true, chain), template.getAddress (chain));
+
+		template = ScriptFormat.classify (ScriptFormat.fromReadable ("0x21" + KEY + " OP_CHECKSIG"));
+		assertEquals (1, template.getKeyCount ());
+		assertTrue (Arrays.equals (key, template.getKey (0)));
+		assertEquals (AddressConverter.toSatoshiStyle (Hash.keyHash (key), false, chain), template.getAddress (chain));
+
+		String other = ByteUtils.toHex (ECKeyPair.createNew ().getPublic ());
+		template = ScriptFormat.classify (ScriptFormat.fromReadable ("OP_2 0x21" + KEY + " 0x41" + other + " OP_2 OP_CHECKMULTISIG"));
+		assertEquals (ScriptFormat.ScriptType.MULTISIG, template.getType ());
+		assertEquals (2, template.getRequiredSignatures ());
+		assertEquals (2, template.getKeyCount ());
+		assertEquals (KEY, ByteUtils.toHex (template.getKey (0)));
+		assertEquals (other, ByteUtils.toHex (template.getKey (1)));
+		assertEquals (AddressConverter.toSatoshiStyle (Hash.keyHash (ByteUtils.fromHex (other)), false, chain), template.getKeyAddress (1, chain));
+		assertTrue (template.getAddress (chain) == null);
+
+		template = ScriptFormat.classify (ScriptFormat.fromReadable ("OP_RETURN"));
+		assertEquals (0, template.getRequiredSignatures ());
+		assertTrue (template.getAddress (chain) == null);
+	}
+
+	@Test
+	public void fastPathTest ()
+	{
+		Random rnd = new Random (1);
+		String[] forms =
+				{ "OP_DUP OP_HASH160 0x14%s OP_EQUALVERIFY OP_CHECKSIG", "OP_HASH160 0x14%s OP_EQUAL", "0x21%s OP_CHECKSIG", "0x41%s OP_CHECKSIG",
+						"OP_DUP OP_HASH160 0x4c14%s OP_EQUALVERIFY OP_CHECKSIG", "OP_HASH160 0x4c14%s OP_EQUAL", "0x4c21%s OP_CHECKSIG" };
+		int[] lengths = { 20, 20, 33, 65, 20, 20, 33 };
+		for ( int i = 0; i < 10000; ++i )
+		{
+			int f = rnd.nextInt (forms.length);
+			byte[] payload = new byte[lengths[f]];
+			rnd.nextBytes (payload);
+			byte[] script = ScriptFormat.fromReadable (String.format (forms[f], ByteUtils.toHex (payload)));
+			if ( rnd.nextInt (4) == 0 )
+			{
+				// some random corruption
+				script[rnd.nextInt (script.length)] = (byte) rnd.nextInt (256);
+			}
+			ScriptFormat.Template fast = ScriptFormat.classify (script);
+			ScriptFormat.Template slow = ScriptFormat.classifyTokens (script, 0, script.length);
+			assertEquals (slow.getType (), fast.getType ());
+			assertEquals (slow.getPayloadOffset (), fast.getPayloadOffset ());
+			assertEquals (slow.getPayloadLength (), fast.getPayloadLength ());
+			assertEquals (slow.getKeyCount (), fast.getKeyCount ());
+			assertEquals (slow.getType () == ScriptFormat.ScriptType.PAY_TO_ADDRESS, ScriptFormat.isPayToAddress (script));
+			assertEquals (slow.getType () == ScriptFormat.ScriptType.PAY_TO_SCRIPT_HASH, ScriptFormat.isPayToScriptHash (script));
+		}
+	}
+
+	@Test
+	public void scriptCodeTest () throws ValidationException
+	{
+		Random rnd = new Random (2);
+		byte[] sig = new byte[71];
+		byte[] data1 = new byte[80];
+		byte[] data2 = new byte[300];
+		rnd.nextBytes (sig);
+		rnd.nextBytes (data1);
+		rnd.nextBytes (data2);
+		String pushes = "0x4c50" + ByteUtils.toHex (data1) + " OP_DROP 0x4d2c01" + ByteUtils.toHex (data2) + " OP_DROP ";
+		byte[] script = ScriptFormat.fromReadable (pushes + "0x47" + ByteUtils.toHex (sig) + " OP_DROP OP_CODESEPARATOR OP_1");
+		byte[] expected = ScriptFormat.fromReadable (pushes + "OP_DROP OP_1");
+		assertTrue (Arrays.equals (expected, ScriptFormat.getScriptCode (script, 0, sig)));
+		// a push of the signature in other than the direct encoding is not removed
+		byte[] indirect = ScriptFormat.fromReadable ("0x4c47" + ByteUtils.toHex (sig) + " OP_DROP OP_1");
+		assertTrue (Arrays.equals (indirect, ScriptFormat.getScriptCode (indirect, 0, sig)));
+	}
+
+	private void assertPayload (byte[] script, ScriptFormat.ScriptType type, String payload)
+	{
+		byte[] shifted = new byte[script.length + 3];
+		System.arraycopy (script, 0, shifted, 3, script.length);
+		ScriptFormat.Template template = ScriptFormat.classify (shifted, 3, script.length);
+		assertEquals (type, template.getType ());
+		assertEquals (payload,
+				ByteUtils.toHex (Arrays.copyOfRange (shifted, template.getPayloadOffset (), template.getPayloadOffset () + template.getPayloadLength ())));
+	}
+}
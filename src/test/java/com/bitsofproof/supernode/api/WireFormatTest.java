@@ -18,7 +18,18 @@ package com.bitsofproof.supernode.api;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import org.junit.Test;
 
@@ -30,6 +41,8 @@ import com.bitsofproof.supernode.api.WireFormat;
 
 public class WireFormatTest
 {
+	static final String ANOTHER_BLOCK =
+			"01000000c5b9489065fa7e1ac4facc51a5a0ccc2111911609f43386ebe7ca1d200000000a0db3bbb22a2a8441d84dbe335c24959ea3d3d6e91bf67e66bbcb0d7e0a9c4836a834a4dffff001d041813660201000000010000000000000000000000000000000000000000000000000000000000000000ffffffff0e046a834a4d017e062f503253482fffffffff0100f2052a01000000232103dac3fb8de40965f42fb4afb3baa07d3304bc2aa28cfc25f12b52f1523681451dac00000000010000001518b50db063333a3261b9b41e887b4aa5b69becdc9967550507c120e22a764967000000004a493046022100e49de3c89180769db346145cdda48323ddecc2af0041293432528767b18407650221009f7878deb054e4f9c0e6aecbe6de15f5d829041c11f7952d33e96c76ada1258b01ffffffff322948a4806acfeca2b32248d0e183c8eb09d5e5ef48adf33777307635414cc0000000004a493046022100ba88d34e4d4fd85ab5e4d77cb74f71c87a24235bcbe39cf4334633f70ff27233022100b5aa1b96bab59457d3d837473de1e4f9f89ba3ee39964463952271c5b4140fa001ffffffffcf330295467623ec1378dc6fa312103ad8a210b3e1351f2f4b6a57ac43fcd472000000004a493046022100b21560dfda52352c4416c1e48496659ea3d29e4e25706a991986864210bc759e0221009c1e45af6e2eba0883a862442d85a2b48c3395e35a4276f535cd70d45a971c7401ffffffffeeed0f4d975db8f66788f809ecf8c351d19ff5805276ef31983bc5682548342d0000000049483045022100e02cc0b4bf8a126807b1577819944c1bb13e8f4028cf7df0a0729013d511b071022010a1bcdefca334588939f9fe40e0d8607588191684fce0f46180a139305b8b4001ffffffffc8ac0a2fb1c01e0e0a5339d296eb072b2b9f9cb1d410a1fdd69a2c797094dda50000000049483045022016ba8f50d7f30be7e4a68c3d50368d577e2ef6c8b60842725ae636b2985776fc022100bb39d47d1955ffca47920d743bcd6f05b31ea2bf3dc7ede225eb4c901126b48901fffffffff1b03cf0680b9ef33fd311f6bbc6db3f1c164f9341f48a02df1905cec4ce241b000000004948304502201dbbfabc47f6da84ceedbc92b792d4a8ef632f0bddf7ebfad5ca21f3731f450502210098751ccf37fd97ff82446486d4c1d62860c2080a1128ea5ddb0d30bfde3cd7a801ffffffff1fe6898ac074a680fe7458ff87a03956db73a880d2ace6539efcc43002bd97ed000000004a493046022100f8a83fadb06af9c0cc730f17ae47fe7a09cada9eae623b8dd86bf365ef0e20480221009a10b073b2a8b313d975f801213efdf12b94141d7b6a8e98de3b0c67ee1cef4c01ffffffff6fd85c0213cfe9863573596a4d5f1509ac41a91b572e6c1bdafe46d9249a5fa4000000004a493046022100f3e98f3e76cc0f533b0e1cccd82650b704e31e3e7e62bf81bb474cf2add58ebf022100f77003eec814a3336cc305b8461cf3ccb19b1f18f06f66208ed31c3e468466ed01ffffffff9e93a056a6515e7916fc049578708d188c2146d3c12638acac92e0b72e076edd000000004a4930460221008ee8d7348aed82a8d074753ab4c8dbdd28a668da821269c4cd0c5c253738cab7022100b06a0208d60af1be6303dd883fd05f964a42f7de317761641ec1158944f52b6b01ffffffff0ecc7b73d8cd5d377d74d836bb6e3473478554a923154286ddaf6985948fd9d300000000494830450221008159ed783bc717ff5a6502cd87a8d8144fae74c6fc6943a5a38da7170203cb3802207e31577a576bc01510cb2280f918a371f63eee44cd2b4490c0994d261787916e01ffffffff78966e9f0a2d4452ab2418249fa6fb1a325a04f039d015899141a82aa5a6c05c000000004847304402206655b13198e413ac8f1aa8926d4617560758cf8b5045afdfc9116da0873ed89802205db55cf3f398467bfc6997f68c881e5f2a7225293ebbd2af40d15df6de4ef87701ffffffff69f2096bbede7015fee2fb307f7d7dd084641b7f4af5c3074dc7b2b6df03277c000000004a493046022100c9199296673a1beae598a6d2348ef13ad1b9f15eebaa825d2282adf017cbb5f0022100b54934e40ff0194a53dcaa9d017c36a93dbb53aa45fe21ab93b07fbb58570d5501ffffffff3c11b146d43fd62ec36b733942a52ba0c352c95a3f078808a38d080898cb83300000000048473044022004c64773b9e6a17cfca7ff583be650104c0538940289b2da8f8bebbd32e486b302200174d8f0938a0f9eeab4c4b137581e032f06d4740e3b0ad9d0423a0a8de65af101ffffffff59ac3c37adfa89b9a907ef9d485c57262e9283e1eb96069c2de04369ef1b3c7600000000494830450220306f3ac72de9dbeb1ec139e4e89cc3b3b9bcb63747bf0e165fcfc773f3669832022100c00a16800f16bf1c71ac6c2989b42d974b0ec2f3e3671325fb2cae52a1c569d801ffffffffb4bbecee818dd986e5ab82f36dbd5ccc29ab134614e304c0a397e14082fe7bb7000000004a493046022100ed68e0303052b41ffd80c1e905cee5547e92422d43b73e473a615e4a47146bb5022100ecab3f92c62477350753b4efea19d608fcce15b1b2c38fbe905e9d1f9ad7631f01ffffffff7546bbac9ae1c8980da6e8c154b368eb4df305b6f3f27ff38f195a13c9ee0484000000004948304502202288566af2b68b6982d1244e293ea3d7c156a425329b7f61b272e4deec317bea022100d9739976b442d35c32830cb2c105e0d7275f7efaa99eaeea4b24a553267a31fc01ffffffffd15854d1e5ba349daf72089f470b24557a2be25105b7831a3f18a62fb8bab677000000004948304502206e3a23075e0248ea8cabc7c875b4cfd9f036c1c4f358a00ec152fc96d1cb6cf8022100d34c018815f63c65f5364061369382b31d579cd6d8a4afe9ec1f03ba66d7717801ffffffffdf686a7f31c2c1de6a608553b26d6336434719fa45428eb3df59bbef75ce9e7e000000004948304502200a22a24a8f817a2f24d3f8c2670f3cb25cd389ce25e0d45eeb0aea08563c5c9802210081ff14edb230a44e5b52e35f573676096a937fc27cc830b153b229b92cac75c101ffffffffd226fea91b99c5a31a034d340f647b722e50950c96a876eb96569efaeaf3b227000000004a4930460221009684e60a7fd61362d0dad79858044aa4a7b878b3f0bd432e384fe4c7e6c90bde0221009883e4f739cffe574bac5bed0a4e69708433973a2490d9415d303614fc31be4701fffffffff640c60ea438dc020048599869836f5323ef47477ee17caddf076ed428898f7100000000494830450220028eb7617dc161a282512c81975d41a1594c05f34cb26fb759682bf784da7071022100a0913abea7229b3c465a4fa32dc861f72ef684e8dd3f19aac5f0f74ea39c03cf01ffffffffd59d2a49b1883c6f7ac68a9d2649dc0dde3f0205e19d8fdaf8065381f9ba61cc000000004a4930460221009f5b27dfd397423a04cab52ee6e8215e290e9666309f0f59f5bc5f6c207d3639022100f5a79133db2cc786140aeee0bf7c8a81adca6071928e8210f1c9f0c653e2f04201ffffffff0240195e29010000001976a914944a7d4b3a8d3a5ecf19dfdfd8dcc18c6f1487dd88acc0c01e49170000001976a91432040178c5cf81cb200ab99af1131f187745b51588ac00000000";
 
 	@Test
 	public void testUint16 ()
@@ -84,6 +97,35 @@ public class WireFormatTest
 		assertTrue (reader.eof ());
 	}
 
+	@Test
+	public void testVarLengthBounds ()
+	{
+		byte[][] inputs = { { (byte) 0xfe, (byte) 0xff, (byte) 0xff, (byte) 0xff, 0x7f, 0 },
+				{ (byte) 0xff, 5, 0, 0, 0, 1, 0, 0, 0, 0, 0, 0, 0, 0 }, { 3, 0, 0 } };
+		for ( byte[] b : inputs )
+		{
+			try
+			{
+				new WireFormat.Reader (b).readVarBytes ();
+				assertTrue (false);
+			}
+			catch ( IndexOutOfBoundsException e )
+			{
+			}
+			try
+			{
+				new WireFormat.Reader (b).readVarSlice ();
+				assertTrue (false);
+			}
+			catch ( IndexOutOfBoundsException e )
+			{
+			}
+		}
+		WireFormat.Reader reader = new WireFormat.Reader (new byte[] { 2, 1, 2 });
+		assertTrue (Arrays.equals (new byte[] { 1, 2 }, reader.readVarBytes ()));
+		assertTrue (reader.eof ());
+	}
+
 	@Test
 	public void testReadHash ()
 	{
@@ -132,11 +174,290 @@ public class WireFormatTest
 		assertTrue (t1.getHash ().equals (t2.getHash ()));
 	}
 
+	@Test
+	public void testSliceReader ()
+	{
+		byte[] tx =
+				ByteUtils
+						.fromHex ("01000000010000000000000000000000000000000000000000000000000000000000000000ffffffff1b02725236326635303332353334383266000000062f736c7573682f000000000100f2052a010000001976a914c685bbd80810f7bb1cb7faa2f0841d331fea481488ac00000000");
+		byte[] padded = new byte[tx.length + 10];
+		System.arraycopy (tx, 0, padded, 7, tx.length);
+
+		Transaction t1 = Transaction.fromWire (new WireFormat.Reader (padded, 7, tx.length));
+		assertTrue (t1.getHash ().equals ("2371beae0bf4f8fe0fa846973d179ad44839b1f4907e2adda43accbcb64184ae"));
+
+		ByteBuffer direct = ByteBuffer.allocateDirect (padded.length);
+		direct.put (padded);
+		direct.position (7);
+		direct.limit (7 + tx.length);
+		WireFormat.Reader reader = new WireFormat.Reader (direct);
+		Transaction t2 = Transaction.fromWire (reader);
+		assertTrue (reader.eof ());
+		assertTrue (t1.getHash ().equals (t2.getHash ()));
+		assertEquals (t1.toWireDump (), t2.toWireDump ());
+
+		reader = new WireFormat.Reader (padded, 7, tx.length);
+		reader.skipBytes (4 + 1 + 32 + 4);
+		WireFormat.Reader script = reader.readVarSlice ();
+		assertEquals (27, script.length ());
+		assertEquals (2, script.readByte ());
+		assertEquals (4 + 1 + 32 + 4 + 1 + 27, reader.getCursor ());
+	}
+
+	@Test
+	public void testWriters ()
+	{
+		Transaction t =
+				Transaction
+						.fromWireDump ("01000000010000000000000000000000000000000000000000000000000000000000000000ffffffff1b02725236326635303332353334383266000000062f736c7573682f000000000100f2052a010000001976a914c685bbd80810f7bb1cb7faa2f0841d331fea481488ac00000000");
+		String dump = t.toWireDump ();
+		assertEquals (dump.length () / 2, t.getWireSize ());
+
+		ByteBuffer target = ByteBuffer.allocate (t.getWireSize () + 3);
+		target.position (3);
+		t.toWire (new WireFormat.Writer (target));
+		assertEquals (target.capacity (), target.position ());
+		target.position (3);
+		assertEquals (t.getHash (), Transaction.fromWire (new WireFormat.Reader (target)).getHash ());
+
+		WireFormat.Writer outer = WireFormat.Writer.pooled ();
+		WireFormat.Writer inner = WireFormat.Writer.pooled ();
+		t.toWire (outer);
+		inner.writeUint32 (1);
+		assertEquals (dump, ByteUtils.toHex (outer.toByteArray ()));
+		assertEquals (t.getHash (), outer.hash ().toString ());
+		assertEquals (4, inner.size ());
+		outer.release ();
+		inner.release ();
+
+		WireFormat.Writer writer = WireFormat.Writer.pooled ();
+		writer.writeVarInt (0x100000000L);
+		assertEquals (WireFormat.varIntSize (0x100000000L), writer.size ());
+		assertEquals (0x100000000L, new WireFormat.Reader (writer.toByteArray ()).readVarInt ());
+		writer.release ();
+	}
+
+	@Test
+	public void testSerialization () throws IOException, ClassNotFoundException
+	{
+		assertEquals (String.class, ObjectStreamClass.lookup (Block.class).getField ("previousHash").getType ());
+		assertEquals (String.class, ObjectStreamClass.lookup (Transaction.class).getField ("hash").getType ());
+		assertEquals (String.class, ObjectStreamClass.lookup (TransactionInput.class).getField ("sourceHash").getType ());
+		assertEquals (String.class, ObjectStreamClass.lookup (TransactionOutput.class).getField ("transactionHash").getType ());
+
+		Block b = Block.fromWireDump (ANOTHER_BLOCK);
+		b.computeHash ();
+		ByteArrayOutputStream bs = new ByteArrayOutputStream ();
+		ObjectOutputStream out = new ObjectOutputStream (bs);
+		out.writeObject (b);
+		out.close ();
+		Block c = (Block) new ObjectInputStream (new ByteArrayInputStream (bs.toByteArray ())).readObject ();
+		assertEquals (b.getHash (), c.getHash ());
+		assertEquals (b.getBinaryMerkleRoot (), c.getBinaryMerkleRoot ());
+		assertEquals (b.getHash (), c.getTransactions ().get (1).getBlockHash ());
+		assertEquals (b.getTransactions ().get (1).getInputs ().get (0).getSourceHash (), c.getTransactions ().get (1).getInputs ().get (0)
+				.getSourceHash ());
+		assertEquals (ANOTHER_BLOCK, c.toWireDump ());
+	}
+
+	@Test
+	public void testLazyBlock () throws IOException, ClassNotFoundException
+	{
+		Block full = Block.fromWireDump (ANOTHER_BLOCK);
+		byte[] wire = ByteUtils.fromHex (ANOTHER_BLOCK);
+
+		Block header = Block.fromWireHeaderOnly (new WireFormat.Reader (wire, 0, wire.length));
+		assertEquals (full.getHash (), header.getHash ());
+		assertEquals (full.getMerkleRoot (), header.getMerkleRoot ());
+		assertTrue (header.getTransactions () == null);
+
+		WireFormat.Reader reader = new WireFormat.Reader (wire, 0, wire.length);
+		Block lazy = Block.fromWireLazy (reader);
+		assertTrue (reader.eof ());
+		assertEquals (full.getHash (), lazy.getHash ());
+		assertEquals (ANOTHER_BLOCK, lazy.toWireDump ());
+		lazy.computeHash ();
+		assertEquals (full.getHash (), lazy.getHash ());
+		LazyTransactionList transactions = (LazyTransactionList) lazy.getTransactions ();
+		assertEquals (2, transactions.size ());
+		assertTrue (!transactions.isDecoded (0) && !transactions.isDecoded (1));
+		// hashes of undecoded transactions are computed once
+		assertEquals (full.getTransactions ().get (0).getHash (), transactions.getHash (0).toString ());
+		assertTrue (transactions.getHash (0) == transactions.getHash (0));
+		assertTrue (!transactions.isDecoded (0));
+
+		assertEquals (full.getTransactions ().get (1).getHash (), transactions.get (1).getHash ());
+		assertTrue (!transactions.isDecoded (0) && transactions.isDecoded (1));
+		assertEquals (ANOTHER_BLOCK, lazy.toWireDump ());
+
+		ByteArrayOutputStream bs = new ByteArrayOutputStream ();
+		ObjectOutputStream out = new ObjectOutputStream (bs);
+		out.writeObject (lazy);
+		out.close ();
+		Block c = (Block) new ObjectInputStream (new ByteArrayInputStream (bs.toByteArray ())).readObject ();
+		assertEquals (ANOTHER_BLOCK, c.toWireDump ());
+	}
+
+	@Test
+	public void testLazyBlockBoundaries ()
+	{
+		byte[] block = ByteUtils.fromHex (ANOTHER_BLOCK);
+		byte[] wire = new byte[2 * block.length + 3];
+		System.arraycopy (block, 0, wire, 0, block.length);
+		System.arraycopy (block, 0, wire, block.length, block.length);
+		WireFormat.Reader reader = new WireFormat.Reader (wire, 0, wire.length);
+		for ( int i = 0; i < 2; ++i )
+		{
+			Block lazy = Block.fromWireLazy (reader);
+			assertEquals ((i + 1) * block.length, reader.getCursor ());
+			assertEquals (ANOTHER_BLOCK, lazy.toWireDump ());
+			assertEquals (lazy.getHash (), lazy.getTransactions ().get (1).getBlockHash ());
+		}
+		assertEquals (3, reader.length () - reader.getCursor ());
+
+		try
+		{
+			Block.fromWireLazy (new WireFormat.Reader (block, 0, block.length - 1));
+			assertTrue (false);
+		}
+		catch ( IndexOutOfBoundsException e )
+		{
+		}
+	}
+
+	@Test
+	public void testStreamingParser () throws IOException
+	{
+		final Block full = Block.fromWireDump (ANOTHER_BLOCK);
+		byte[] wire = ByteUtils.fromHex (ANOTHER_BLOCK);
+		byte[] two = new byte[2 * wire.length];
+		System.arraycopy (wire, 0, two, 0, wire.length);
+		System.arraycopy (wire, 0, two, wire.length, wire.length);
+
+		final List<String> events = new ArrayList<String> ();
+		final List<Transaction> kept = new ArrayList<Transaction> ();
+		StreamingBlockParser.Listener listener = new StreamingBlockParser.Listener ()
+		{
+			@Override
+			public void header (Block header, long transactions)
+			{
+				assertEquals (full.getHash (), header.getHash ());
+				events.add ("header " + transactions);
+			}
+
+			@Override
+			public void transaction (Transaction transaction, int index, long offset)
+			{
+				Transaction t = full.getTransactions ().get (index);
+				assertEquals (t.getHash (), transaction.getHash ());
+				assertEquals (full.getHash (), transaction.getBlockHash ());
+				assertEquals (t.toWireDump (), ByteUtils.toHex (Arrays.copyOfRange (ByteUtils.fromHex (ANOTHER_BLOCK), (int) offset,
+						(int) offset + t.getWireSize ())));
+				events.add ("transaction " + index);
+				kept.add (transaction);
+			}
+
+			@Override
+			public void end (Block header)
+			{
+				events.add ("end");
+			}
+		};
+
+		StreamingBlockParser parser = new StreamingBlockParser (Channels.newChannel (new ByteArrayInputStream (two)));
+		assertEquals (full.getHash (), parser.parse (listener).getHash ());
+		assertEquals (full.getHash (), parser.parse (listener).getHash ());
+		assertTrue (parser.parse (listener) == null);
+		// transactions keep their wire format after the parser moved on
+		for ( int i = 0; i < kept.size (); ++i )
+		{
+			assertEquals (full.getTransactions ().get (i % 2).toWireDump (), kept.get (i).toWireDump ());
+		}
+		assertEquals ("[header 2, transaction 0, transaction 1, end, header 2, transaction 0, transaction 1, end]", events.toString ());
+
+		try
+		{
+			new StreamingBlockParser (new ByteArrayInputStream (wire, 0, wire.length - 1)).parse (listener);
+			assertTrue (false);
+		}
+		catch ( EOFException e )
+		{
+		}
+		try
+		{
+			new StreamingBlockParser (new ByteArrayInputStream (wire), 1000).parse (listener);
+			assertTrue (false);
+		}
+		catch ( IOException e )
+		{
+		}
+	}
+
+	@Test
+	public void testTransactionWireCache ()
+	{
+		Transaction full = Block.fromWireDump (ANOTHER_BLOCK).getTransactions ().get (1);
+		String dump = full.toWireDump ();
+		Transaction t = Transaction.fromWireDump (dump);
+		assertEquals (full.getHash (), t.getHash ());
+		assertEquals (dump, t.toWireDump ());
+
+		t.setLockTime (1);
+		String modified = t.toWireDump ();
+		assertTrue (!dump.equals (modified));
+		t.computeHash ();
+		assertEquals (modified, t.toWireDump ());
+		assertEquals (Transaction.fromWireDump (modified).getHash (), t.getHash ());
+
+		t.getOutputs ().get (0).setValue (1);
+		t.computeHash ();
+		assertEquals (Transaction.fromWireDump (t.toWireDump ()).getHash (), t.getHash ());
+		assertEquals (t.getHash (), t.getInputs ().get (0).getTransactionHash ());
+	}
+
+	@Test
+	public void testTransactionWireCacheInvalidation () throws CloneNotSupportedException
+	{
+		String dump = Block.fromWireDump (ANOTHER_BLOCK).getTransactions ().get (1).toWireDump ();
+
+		// inputs and outputs modified in place
+		Transaction t = Transaction.fromWireDump (dump);
+		t.getInputs ().get (0).setScript (new byte[] { 1, 2, 3 });
+		String modified = t.toWireDump ();
+		assertTrue (!dump.equals (modified));
+		assertEquals (modified, Transaction.fromWireDump (modified).toWireDump ());
+		assertEquals (modified.length () / 2, t.getWireSize ());
+		t.computeHash ();
+		t.getOutputs ().get (0).setValue (5);
+		assertEquals (5, Transaction.fromWireDump (t.toWireDump ()).getOutputs ().get (0).getValue ());
+		t.computeHash ();
+		t.getInputs ().get (0).setSequence (7);
+		assertEquals (7, Transaction.fromWireDump (t.toWireDump ()).getInputs ().get (0).getSequence ());
+
+		// lists modified in place
+		t = Transaction.fromWireDump (dump);
+		t.getOutputs ().add (t.getOutputs ().get (0).clone ());
+		assertEquals (t.getOutputs ().size (), Transaction.fromWireDump (t.toWireDump ()).getOutputs ().size ());
+		t = Transaction.fromWireDump (dump);
+		TransactionInput in = t.getInputs ().get (0).clone ();
+		in.setIx (in.getIx () + 1);
+		t.getInputs ().set (0, in);
+		assertEquals (in.getIx (), Transaction.fromWireDump (t.toWireDump ()).getInputs ().get (0).getIx ());
+
+		// an input taken over by an other transaction
+		t = Transaction.fromWireDump (dump);
+		Transaction other = Transaction.fromWireDump (dump);
+		other.getInputs ().set (0, t.getInputs ().get (0));
+		other.computeHash ();
+		other.getInputs ().get (0).setScript (new byte[] { 4 });
+		assertTrue (!dump.equals (t.toWireDump ()));
+		assertEquals (other.toWireDump (), t.toWireDump ());
+	}
+
 	@Test
 	public void testAnotherBlock ()
 	{
-		String blockdump =
-				"01000000c5b9489065fa7e1ac4facc51a5a0ccc2111911609f43386ebe7ca1d200000000a0db3bbb22a2a8441d84dbe335c24959ea3d3d6e91bf67e66bbcb0d7e0a9c4836a834a4dffff001d041813660201000000010000000000000000000000000000000000000000000000000000000000000000ffffffff0e046a834a4d017e062f503253482fffffffff0100f2052a01000000232103dac3fb8de40965f42fb4afb3baa07d3304bc2aa28cfc25f12b52f1523681451dac00000000010000001518b50db063333a3261b9b41e887b4aa5b69becdc9967550507c120e22a764967000000004a493046022100e49de3c89180769db346145cdda48323ddecc2af0041293432528767b18407650221009f7878deb054e4f9c0e6aecbe6de15f5d829041c11f7952d33e96c76ada1258b01ffffffff322948a4806acfeca2b32248d0e183c8eb09d5e5ef48adf33777307635414cc0000000004a493046022100ba88d34e4d4fd85ab5e4d77cb74f71c87a24235bcbe39cf4334633f70ff27233022100b5aa1b96bab59457d3d837473de1e4f9f89ba3ee39964463952271c5b4140fa001ffffffffcf330295467623ec1378dc6fa312103ad8a210b3e1351f2f4b6a57ac43fcd472000000004a493046022100b21560dfda52352c4416c1e48496659ea3d29e4e25706a991986864210bc759e0221009c1e45af6e2eba0883a862442d85a2b48c3395e35a4276f535cd70d45a971c7401ffffffffeeed0f4d975db8f66788f809ecf8c351d19ff5805276ef31983bc5682548342d0000000049483045022100e02cc0b4bf8a126807b1577819944c1bb13e8f4028cf7df0a0729013d511b071022010a1bcdefca334588939f9fe40e0d8607588191684fce0f46180a139305b8b4001ffffffffc8ac0a2fb1c01e0e0a5339d296eb072b2b9f9cb1d410a1fdd69a2c797094dda50000000049483045022016ba8f50d7f30be7e4a68c3d50368d577e2ef6c8b60842725ae636b2985776fc022100bb39d47d1955ffca47920d743bcd6f05b31ea2bf3dc7ede225eb4c901126b48901fffffffff1b03cf0680b9ef33fd311f6bbc6db3f1c164f9341f48a02df1905cec4ce241b000000004948304502201dbbfabc47f6da84ceedbc92b792d4a8ef632f0bddf7ebfad5ca21f3731f450502210098751ccf37fd97ff82446486d4c1d62860c2080a1128ea5ddb0d30bfde3cd7a801ffffffff1fe6898ac074a680fe7458ff87a03956db73a880d2ace6539efcc43002bd97ed000000004a493046022100f8a83fadb06af9c0cc730f17ae47fe7a09cada9eae623b8dd86bf365ef0e20480221009a10b073b2a8b313d975f801213efdf12b94141d7b6a8e98de3b0c67ee1cef4c01ffffffff6fd85c0213cfe9863573596a4d5f1509ac41a91b572e6c1bdafe46d9249a5fa4000000004a493046022100f3e98f3e76cc0f533b0e1cccd82650b704e31e3e7e62bf81bb474cf2add58ebf022100f77003eec814a3336cc305b8461cf3ccb19b1f18f06f66208ed31c3e468466ed01ffffffff9e93a056a6515e7916fc049578708d188c2146d3c12638acac92e0b72e076edd000000004a4930460221008ee8d7348aed82a8d074753ab4c8dbdd28a668da821269c4cd0c5c253738cab7022100b06a0208d60af1be6303dd883fd05f964a42f7de317761641ec1158944f52b6b01ffffffff0ecc7b73d8cd5d377d74d836bb6e3473478554a923154286ddaf6985948fd9d300000000494830450221008159ed783bc717ff5a6502cd87a8d8144fae74c6fc6943a5a38da7170203cb3802207e31577a576bc01510cb2280f918a371f63eee44cd2b4490c0994d261787916e01ffffffff78966e9f0a2d4452ab2418249fa6fb1a325a04f039d015899141a82aa5a6c05c000000004847304402206655b13198e413ac8f1aa8926d4617560758cf8b5045afdfc9116da0873ed89802205db55cf3f398467bfc6997f68c881e5f2a7225293ebbd2af40d15df6de4ef87701ffffffff69f2096bbede7015fee2fb307f7d7dd084641b7f4af5c3074dc7b2b6df03277c000000004a493046022100c9199296673a1beae598a6d2348ef13ad1b9f15eebaa825d2282adf017cbb5f0022100b54934e40ff0194a53dcaa9d017c36a93dbb53aa45fe21ab93b07fbb58570d5501ffffffff3c11b146d43fd62ec36b733942a52ba0c352c95a3f078808a38d080898cb83300000000048473044022004c64773b9e6a17cfca7ff583be650104c0538940289b2da8f8bebbd32e486b302200174d8f0938a0f9eeab4c4b137581e032f06d4740e3b0ad9d0423a0a8de65af101ffffffff59ac3c37adfa89b9a907ef9d485c57262e9283e1eb96069c2de04369ef1b3c7600000000494830450220306f3ac72de9dbeb1ec139e4e89cc3b3b9bcb63747bf0e165fcfc773f3669832022100c00a16800f16bf1c71ac6c2989b42d974b0ec2f3e3671325fb2cae52a1c569d801ffffffffb4bbecee818dd986e5ab82f36dbd5ccc29ab134614e304c0a397e14082fe7bb7000000004a493046022100ed68e0303052b41ffd80c1e905cee5547e92422d43b73e473a615e4a47146bb5022100ecab3f92c62477350753b4efea19d608fcce15b1b2c38fbe905e9d1f9ad7631f01ffffffff7546bbac9ae1c8980da6e8c154b368eb4df305b6f3f27ff38f195a13c9ee0484000000004948304502202288566af2b68b6982d1244e293ea3d7c156a425329b7f61b272e4deec317bea022100d9739976b442d35c32830cb2c105e0d7275f7efaa99eaeea4b24a553267a31fc01ffffffffd15854d1e5ba349daf72089f470b24557a2be25105b7831a3f18a62fb8bab677000000004948304502206e3a23075e0248ea8cabc7c875b4cfd9f036c1c4f358a00ec152fc96d1cb6cf8022100d34c018815f63c65f5364061369382b31d579cd6d8a4afe9ec1f03ba66d7717801ffffffffdf686a7f31c2c1de6a608553b26d6336434719fa45428eb3df59bbef75ce9e7e000000004948304502200a22a24a8f817a2f24d3f8c2670f3cb25cd389ce25e0d45eeb0aea08563c5c9802210081ff14edb230a44e5b52e35f573676096a937fc27cc830b153b229b92cac75c101ffffffffd226fea91b99c5a31a034d340f647b722e50950c96a876eb96569efaeaf3b227000000004a4930460221009684e60a7fd61362d0dad79858044aa4a7b878b3f0bd432e384fe4c7e6c90bde0221009883e4f739cffe574bac5bed0a4e69708433973a2490d9415d303614fc31be4701fffffffff640c60ea438dc020048599869836f5323ef47477ee17caddf076ed428898f7100000000494830450220028eb7617dc161a282512c81975d41a1594c05f34cb26fb759682bf784da7071022100a0913abea7229b3c465a4fa32dc861f72ef684e8dd3f19aac5f0f74ea39c03cf01ffffffffd59d2a49b1883c6f7ac68a9d2649dc0dde3f0205e19d8fdaf8065381f9ba61cc000000004a4930460221009f5b27dfd397423a04cab52ee6e8215e290e9666309f0f59f5bc5f6c207d3639022100f5a79133db2cc786140aeee0bf7c8a81adca6071928e8210f1c9f0c653e2f04201ffffffff0240195e29010000001976a914944a7d4b3a8d3a5ecf19dfdfd8dcc18c6f1487dd88acc0c01e49170000001976a91432040178c5cf81cb200ab99af1131f187745b51588ac00000000";
+		String blockdump = ANOTHER_BLOCK;
 		Block b = Block.fromWireDump (blockdump);
 
 		b.computeHash ();